@@ -1,129 +1,165 @@
 package com.ioteste.app;
 
 import com.ioteste.control.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
 import java.io.IOException;
-import java.net.URI;
+import java.net.InetAddress;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpRequest.BodyPublisher;
-import java.net.http.HttpRequest.BodyPublishers;
-import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class App {
 
-    private String energyContract = EnergyCost.TEST_CONTRACT_30S;
+    private String energyContract = AppConfig.getString("tariff.contract", EnergyCost.TEST_CONTRACT_30S);
 
     private static final Logger logger = LoggerFactory.getLogger(App.class);
 
-    private HttpClient client = HttpClient.newHttpClient();
+    private final TaskScope tasks = new TaskScope("app-task", AppConfig.getLong("shutdown.timeout", 5000));
+    private HttpClient client = HttpClient.newBuilder().executor(tasks)
+            .connectTimeout(Duration.ofMillis(AppConfig.getLong("site.connect.timeout", 2000))).build();
     private MqttClient mqttClient;
 
-    protected Controller controller = new DefaultController();
-    private DataSite siteConfig;
-
-    private List<DataSwitch> knownSwitchStatus = new ArrayList<>();
+    protected Controller controller = createController();
+    private volatile DataSite siteConfig;
+    private volatile SiteIndex siteIndex;
+    private final ReentrantLock siteLock = new ReentrantLock();
+    private final SiteConfigWatcher siteWatcher = new SiteConfigWatcher(client,
+            AppConfig.getString("site.url", "http://localhost:8080/site-config"),
+            Duration.ofMillis(AppConfig.getLong("site.request.timeout", 5000)), this::onSiteConfigLoaded);
+
+    private final boolean clusterEnabled = AppConfig.getBoolean("cluster.enabled", false);
+    private final String nodeId = AppConfig.getString("cluster.node.id", hostName());
+    private volatile DataSite fullSiteConfig;
+    private ClusterMembership cluster;
+    private volatile float shardFraction = 1f;
+    private final BudgetCoordinator.Mode budgetMode = AppConfig.getEnum("budget.mode", BudgetCoordinator.Mode.class, BudgetCoordinator.Mode.LEASE);
+    private final String budgetTopic = AppConfig.getString("budget.topic", "ioteste/cluster/budget");
+    private BudgetCoordinator budgetCoordinator;
+    private volatile EnergyBudget energyBudget = EnergyBudget.SITE;
+    private final Map<String, Float> heatDemand = new ConcurrentHashMap<>();
+
+    private SwitchStateStore switchStore;
     
-    private Map<String, Long> sensorHeartbeats = new ConcurrentHashMap<>();
-    
-    private static final long SENSOR_TIMEOUT_MS = 5000;
-
-    private final Object switchLock = new Object();
-    private final ExecutorService commandExecutor = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r);
-        t.setName("switchCommandExecutor");
-        t.setDaemon(true);
-        return t;
-    });
+    private final long sensorTimeoutMs = AppConfig.getLong("watchdog.timeout", 5000);
+    private final TimerWheel<String> sensorDeadlines = new TimerWheel<>(
+            AppConfig.getLong("watchdog.tick", 100), 1024, this::onSensorTimeout);
+
+    private static final int COMMAND_MAX_RETRIES = 5;
+    private static final int STATUS_MAX_RETRIES = 5;
+    private final long discoveryDeadlineMs = AppConfig.getLong("startup.discovery.deadline", 5000);
+    private final Map<String, CompletableFuture<DataSwitch>> pendingDiscovery = new ConcurrentHashMap<>();
+
+    private final Metrics metrics = new Metrics();
+    // subscription filter -> message counter, one per exported topic label
+    private final Map<String, Metrics.Counter> messagesByTopic = new ConcurrentHashMap<>();
+    private final Metrics.Counter parseFailures = metrics.counter("ioteste_sensor_parse_failures_total", "Sensor payloads that could not be decoded.");
+    private final Metrics.Counter unmappedMessages = metrics.counter("ioteste_sensor_unmapped_total", "Sensor messages whose topic matches no room.");
+    private final Metrics.Timer controllerLatency = metrics.timer("ioteste_controller_seconds", "Time spent in the controller per cycle.");
+    private final Metrics.Summary opsPerCycle = metrics.summary("ioteste_controller_operations", "Operations emitted per control cycle.");
+    private final Metrics.Counter watchdogTrips = metrics.counter("ioteste_watchdog_trips_total", "Switches turned off because their sensor went silent.");
+    private final Metrics.Counter peakShutdownLate = metrics.counter("ioteste_peak_shutdown_late_total", "Switches still on when the peak shutdown deadline passed.");
+    private final Metrics.Counter siteReloads = metrics.counter("ioteste_site_reloads_total", "Site config versions applied after startup.");
+    private final Metrics.Counter budgetRejections = metrics.counter("ioteste_budget_rejections_total", "Turn-ons dropped because another worker took the budget first.");
+    private final Metrics.Counter budgetRenewFailures = metrics.counter("ioteste_budget_renew_failures_total", "Budget leases that could not be published.");
+    private MetricsServer metricsServer;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    // keeps time only; anything that blocks runs on tasks
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            AppConfig.getInt("scheduler.threads", 2), Thread.ofPlatform().name("app-scheduler-", 0).daemon().factory());
+    private PeakHourScheduler peakScheduler;
+    private final long prePeakWindowMs = AppConfig.getLong("peak.stagger", 10_000);
+    private final long peakShutdownDeadlineMs = AppConfig.getLong("peak.shutdown.deadline", 10_000);
+    private static final long STAGGER_SLICE_MS = 50;
+    private volatile boolean prePeak;
+    private final ControlEventLog eventLog = new ControlEventLog(
+            AppConfig.getInt("events.capacity", 8192), AppConfig.getInt("events.sample", 100));
+
+    private SensorIngestQueue ingestQueue;
+    private StateJournal journal;
+    private final String brokerUrl = AppConfig.getString("mqtt.broker", "tcp://localhost:1883");
+    private final boolean durableSession = AppConfig.getBoolean("mqtt.durable", false);
+    private final int sensorQos = AppConfig.getInt("mqtt.qos", 1);
+    private final long journalMaxAgeMs = AppConfig.getLong("journal.max.age", 600_000);
+    private final SwitchClient switchClient = new SwitchClient(SwitchClient.Settings.fromConfig(), metrics, tasks);
+    private final SwitchCommandDispatcher commandDispatcher = new SwitchCommandDispatcher(
+            switchClient, COMMAND_MAX_RETRIES, this::applyAcknowledgedOperation, () -> switchStore, metrics);
+    private final SwitchReconciler reconciler = new SwitchReconciler(
+            () -> switchStore, switchURL -> getSwitchStatus(switchURL, 1), this::journalSwitch, metrics,
+            AppConfig.getLong("reconcile.interval.min", 5000), AppConfig.getLong("reconcile.interval.max", 300_000),
+            AppConfig.getInt("reconcile.rate", 50), AppConfig.getLong("reconcile.tick", 250));
 
     public static void main(String[] args) {
         App myApp = new App();
         myApp.start();
     }
 
-    public void setController(Controller controller) {
-        this.controller = controller;
-    }
-
-    private String getSwitchStatus(String switchURL) throws IOException, InterruptedException {
-        int maxRetries = 5;
-        int retryCount = 0;
-        long waitTime = 5000;
-        while (true) {
-            try {
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(switchURL))
-                        .build();
-                HttpResponse<String> response = this.client.send(request, BodyHandlers.ofString());
-                return response.body();
-            } catch (IOException | InterruptedException e) {
-                retryCount++;
-                if (retryCount >= maxRetries) {
-                    logger.error("FATAL: Could not get the state of switch {} after {} attempts. Cause: {}", switchURL, maxRetries, e.getMessage());
-                    throw e;
-                }
-                logger.warn("Failed to get state of switch {}. Retrying ({}/{}) in {}ms", switchURL, retryCount, maxRetries, waitTime);
-                Thread.sleep(waitTime);
-            }
+    /**
+     * The default bang-bang controller, or with {@code controller.predictive}
+     * the one with hysteresis, dwell times and pre-heat.
+     */
+    private Controller createController() {
+        if (!AppConfig.getBoolean("controller.predictive", false)) {
+            return new DefaultController(energyContract);
         }
+        PredictiveController.Settings d = PredictiveController.Settings.defaults();
+        return new PredictiveController(energyContract, new PredictiveController.Settings(
+                AppConfig.getFloat("controller.hysteresis", d.hysteresis()),
+                AppConfig.getLong("controller.min.on", d.minOnMs()),
+                AppConfig.getLong("controller.min.off", d.minOffMs()),
+                d.learningRate(),
+                AppConfig.getFloat("controller.preheat.max", d.maxPreheat()),
+                AppConfig.getLong("controller.preheat.lead", d.maxLeadMs()),
+                d.maxGapMs()));
     }
 
-    private String postSwitchOp(String switchURL, String jsonBody) throws IOException, InterruptedException {
-        int maxRetries = 5;
-        int retryCount = 0;
-        long waitTime = 5000;
-        while (true) {
-            try {
-                BodyPublisher bodyPublisher = BodyPublishers.ofString(jsonBody);
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(switchURL))
-                        .header("Content-Type", "application/json")
-                        .POST(bodyPublisher)
-                        .build();
-                HttpResponse<String> response = this.client.send(request, BodyHandlers.ofString());
-
-                if (response.statusCode() == 200 && response.body() != null && !response.body().isEmpty()) {
-                    logger.info("ACK received from {}: {}", switchURL, response.body());
-                } else {
-                    logger.warn("Did not receive valid ACK from switch {} (HTTP {})", switchURL, response.statusCode());
-                }
-
-                return response.body();
-            } catch (IOException | InterruptedException e) {
-                retryCount++;
-                if (retryCount >= maxRetries) {
-                    logger.error("FATAL: Could not send command to switch {} after {} attempts. Cause: {}", switchURL, maxRetries, e.getMessage());
-                    throw e;
-                }
-                logger.warn("Error sending command to switch {}. Retrying ({}/{}) in {}ms", switchURL, retryCount, maxRetries, waitTime);
-                Thread.sleep(waitTime);
-            }
-        }
+    public void setController(Controller controller) {
+        this.controller = controller;
     }
 
+    /**
+     * Asks a switch for its status and decodes the answer from the raw bytes.
+     */
+    private CompletableFuture<DataSwitch> getSwitchStatus(String switchURL, int maxAttempts) {
+        return switchClient.withRetries(switchURL, maxAttempts, attempt -> switchClient.getBytes(switchURL))
+                .thenApply(response -> parseSwitchStatus(switchURL, response.body()));
+    }
 
     private void start() {
+        // on SIGTERM, whatever was started by then is stopped
+        Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().name("app-shutdown").unstarted(this::stop));
+        if (durableSession && AppConfig.getString("mqtt.client.id", null) == null) {
+            // two instances with the same id would keep taking the session from each other
+            logger.error("FATAL: mqtt.durable needs an explicit mqtt.client.id, unique per instance.");
+            return;
+        }
         int maxRetriesSite = 10;
         int retryCountSite = 0;
         long waitTimeSite = 5000;
@@ -149,49 +185,55 @@ public class App {
             }
         }
 
-        this.knownSwitchStatus = getInitialSwitchesStatus();
-        String brokerUrl = "tcp://localhost:1883";
-        logger.info("Integration Mode. Using blackBox broker at: {}", brokerUrl);
+        if (siteConfig == null) {
+            logger.error("FATAL: Site config could not be loaded after {} attempts.", maxRetriesSite);
+            return;
+        }
+        if (!loadTariffs()) {
+            return;
+        }
+        this.fullSiteConfig = siteConfig;
+        if (clusterEnabled && !joinCluster()) {
+            return;
+        }
+        initialize(siteConfig, recoverSwitchStates(siteConfig));
+        reconcilePendingDiscovery();
 
-        String clientId = "app-" + UUID.randomUUID().toString();
+        startIngestQueue();
+        eventLog.start();
+        metrics.counter("ioteste_events_dropped_total", "Control events dropped because the event ring was full.", eventLog::getDroppedCount);
+        startMetricsServer();
+
+        logger.info("Integration Mode. Using blackBox broker at: {}", brokerUrl);
 
         try {
-            mqttClient = new MqttClient(brokerUrl, clientId, new MemoryPersistence());
             MqttConnectOptions options = new MqttConnectOptions();
             options.setAutomaticReconnect(true);
-            options.setCleanSession(true);
             options.setConnectionTimeout(10);
+            options.setMaxReconnectDelay(AppConfig.getInt("mqtt.reconnect.max", 30_000));
+            if (durableSession) {
+                // a stable id and a file store let the broker keep our subscriptions
+                // and queue readings while we are away
+                String clientId = AppConfig.getString("mqtt.client.id", null);
+                mqttClient = new MqttClient(brokerUrl, clientId,
+                        new MqttDefaultFilePersistence(AppConfig.getString("mqtt.persistence.dir", "mqtt-store")));
+                options.setCleanSession(false);
+                options.setMaxInflight(AppConfig.getInt("mqtt.max.inflight", 1000));
+                logger.info("Durable MQTT session '{}' with QoS {}.", clientId, sensorQos);
+            } else {
+                mqttClient = new MqttClient(brokerUrl, "app-" + UUID.randomUUID().toString(), new MemoryPersistence());
+                options.setCleanSession(true);
+            }
 
             mqttClient.setCallback(new MqttCallbackExtended() {
                 @Override
                 public void connectComplete(boolean reconnect, String serverURI) {
                     logger.info("MQTT connection {} with broker {}", (reconnect ? "reestablished" : "successful"), serverURI);
-                    try {
-                        if (siteConfig != null && siteConfig.getRooms() != null) {
-                            Set<String> uniqueBaseTopics = new HashSet<>();
-                            for (Room room : siteConfig.getRooms()) {
-                                String sensorTopic = room.getSensor();
-                                if (sensorTopic == null || sensorTopic.isBlank()) {
-                                    continue;
-                                }
-                                if (sensorTopic.startsWith("mqtt:")) {
-                                    sensorTopic = sensorTopic.substring(5);
-                                }
-                                uniqueBaseTopics.add(sensorTopic);
-                            }
-                            for (String baseTopic : uniqueBaseTopics) {
-                                String wildcardTopic = baseTopic + "/+";
-                                logger.info("Subscribing to: {}", wildcardTopic);
-                                mqttClient.subscribe(wildcardTopic, (topic, message) -> {
-                                    String payload = new String(message.getPayload());
-                                    handleSensorMessage(topic, payload);
-                                });
-                            }
-                        } else {
-                            logger.warn("No siteConfig configuration found when reconnecting MQTT.");
-                        }
-                    } catch (MqttException e) {
-                        logger.error("Error resubscribing after MQTT reconnection.", e);
+                    DataSite site = siteConfig;
+                    if (site != null && site.getRooms() != null) {
+                        subscribeSensorTopics(sensorTopicFilters(site, clusterEnabled));
+                    } else {
+                        logger.warn("No siteConfig configuration found when reconnecting MQTT.");
                     }
                 }
 
@@ -203,8 +245,8 @@ public class App {
 
                 @Override
                 public void messageArrived(String topic, MqttMessage message) throws Exception {
-                    String payload = new String(message.getPayload());
-                    handleSensorMessage(topic, payload);
+                    // readings queued by the broker for our session can arrive before the subscriptions are renewed
+                    handleSensorMessage(topic, message.getPayload());
                 }
 
                 @Override
@@ -221,141 +263,759 @@ public class App {
             
             startSensorWatchdog();
 
+            startSwitchReconciler();
+
+            startSiteConfigWatcher();
+
             Thread.currentThread().join();
+        } catch (MqttException e) {
+            logger.error("Fatal MQTT connection error. Cause: {}", e.getMessage());
+            stop();
+        } catch (InterruptedException e) {
+            logger.warn("Application interrupted.");
+            Thread.currentThread().interrupt();
+            stop();
+        }
+    }
 
-            commandExecutor.shutdown();
+    /**
+     * Stops what {@link #start()} started, in reverse order. Closing the task
+     * scope cancels the journal sync and the lease renewal before the journal
+     * is closed and the lease withdrawn. Runs from the shutdown hook; calling
+     * it again does nothing.
+     */
+    void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        logger.info("Shutting down.");
+        siteWatcher.stop();
+        reconciler.stop();
+        sensorDeadlines.stop();
+        if (peakScheduler != null) {
+            peakScheduler.stop();
+        }
+        if (mqttClient != null) {
             try {
-                if (!commandExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    commandExecutor.shutdownNow();
+                if (mqttClient.isConnected()) {
+                    mqttClient.disconnect();
                 }
-            } catch (InterruptedException e) {
-                commandExecutor.shutdownNow();
-                Thread.currentThread().interrupt();
+                mqttClient.close();
+            } catch (MqttException e) {
+                logger.warn("Could not close the MQTT connection cleanly. Cause: {}", e.getMessage());
+            }
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        eventLog.stop();
+        if (ingestQueue != null) {
+            ingestQueue.stop();
+        }
+        tasks.close();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.error("Error closing the journal. Cause: {}", e.getMessage());
+            }
+        }
+        if (budgetCoordinator != null) {
+            try {
+                cluster.publishRetained(budgetTopic + "/" + nodeId, new byte[0]);
+            } catch (MqttException e) {
+                logger.debug("Could not withdraw the budget lease. Cause: {}", e.getMessage());
+            }
+        }
+        if (cluster != null) {
+            cluster.stop();
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Installs a loaded site config and the initial switch states.
+     */
+    void initialize(DataSite siteConfig, List<DataSwitch> initialStatus) {
+        this.siteConfig = siteConfig;
+        this.siteIndex = siteConfig.getIndex();
+        this.switchStore = new SwitchStateStore(siteIndex, initialStatus);
+        metrics.gauge("ioteste_switches_unknown", "Switches whose state has not been reported yet.", this::getUnknownSwitchCount);
+        metrics.gauge("ioteste_site_load", "Load of the active switches, measured where reported.",
+                () -> switchStore.snapshot().getActiveLoad());
+    }
+
+    /**
+     * Hands readings to the ingest queue workers from now on instead of
+     * running the control cycle on the caller.
+     */
+    void startIngestQueue() {
+        this.ingestQueue = new SensorIngestQueue(
+                AppConfig.getInt("ingest.partitions", Math.max(2, Runtime.getRuntime().availableProcessors())),
+                AppConfig.getInt("ingest.capacity", 1024),
+                AppConfig.getEnum("ingest.policy", SensorIngestQueue.BackpressurePolicy.class, SensorIngestQueue.BackpressurePolicy.COALESCE_LATEST),
+                AppConfig.getInt("ingest.batch", 64),
+                this::processSensorReadings);
+        ingestQueue.start();
+        registerQueueGauges(ingestQueue);
+    }
+
+    int getUnknownSwitchCount() {
+        SwitchSnapshot snapshot = switchStore.snapshot();
+        return snapshot.size() - snapshot.getKnownCount();
+    }
+
+    SwitchStateStore getSwitchStore() {
+        return switchStore;
+    }
+
+    TaskScope getTasks() {
+        return tasks;
+    }
+
+    StateJournal getJournal() {
+        return journal;
+    }
+
+    TimerWheel<String> getSensorDeadlines() {
+        return sensorDeadlines;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    private void registerQueueGauges(SensorIngestQueue queue) {
+        metrics.gauge("ioteste_ingest_queue_depth", "Readings waiting for a worker.", queue::getQueueDepth);
+        for (int p = 0; p < queue.getPartitionCount(); p++) {
+            int partition = p;
+            metrics.gauge("ioteste_ingest_partition_depth", "Readings waiting per worker partition.",
+                    "partition", Integer.toString(partition), () -> queue.getPartitionDepth(partition));
+        }
+        metrics.counter("ioteste_ingest_submitted_total",
+                "Readings submitted to the ingest queue, including those later dropped or coalesced.", queue::getSubmittedCount);
+        metrics.counter("ioteste_ingest_dropped_total", "Readings dropped by backpressure.", queue::getDroppedCount);
+        metrics.counter("ioteste_ingest_coalesced_total", "Readings replaced by a newer one before processing.", queue::getCoalescedCount);
+        metrics.counter("ioteste_ingest_processed_total", "Readings handed to the controller.", queue::getProcessedCount);
+    }
+
+    private void startMetricsServer() {
+        if (!AppConfig.getBoolean("metrics.enabled", true)) {
+            return;
+        }
+        try {
+            metricsServer = new MetricsServer(metrics,
+                    AppConfig.getString("metrics.host", "localhost"),
+                    AppConfig.getInt("metrics.port", 9404));
+            metricsServer.start();
+        } catch (IOException e) {
+            logger.error("Could not start metrics endpoint. Cause: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the contracts file named by {@code tariff.file}, if any, and checks
+     * that the configured contract exists.
+     */
+    private boolean loadTariffs() {
+        String tariffFile = AppConfig.getString("tariff.file", null);
+        if (tariffFile != null) {
+            try {
+                int loaded = TariffEngine.getDefault().load(readJsonFileAsString(tariffFile));
+                logger.info("{} energy contracts loaded from {}", loaded, tariffFile);
+            } catch (Exception e) {
+                logger.error("FATAL: Could not load energy contracts from {}. Cause: {}", tariffFile, e.getMessage());
+                return false;
             }
+        }
+        if (!TariffEngine.getDefault().hasContract(energyContract)) {
+            logger.error("FATAL: Unknown energy contract '{}'.", energyContract);
+            return false;
+        }
+        return true;
+    }
 
+    public DataSite loadSiteConfig() throws Exception {
+        logger.info("Loading site config from: {}", siteWatcher.getConfigURL());
+        return siteWatcher.load();
+    }
+
+    /**
+     * The switch states to start from: those in the journal, and for the
+     * switches it does not cover, the answers of a discovery probe. The
+     * reconciler confirms the journaled ones later.
+     */
+    List<DataSwitch> recoverSwitchStates(DataSite site) {
+        List<DataSwitch> states = openJournal(site);
+        Set<String> covered = new HashSet<>();
+        for (DataSwitch journaled : states) {
+            covered.add(journaled.getSwitchURL());
+        }
+        List<String> probe = new ArrayList<>();
+        for (String switchURL : site.getIndex().getSwitchURLs()) {
+            if (!covered.contains(switchURL)) {
+                probe.add(switchURL);
+            }
+        }
+        if (!covered.isEmpty()) {
+            logger.info("Starting from {} journaled switch states; probing the other {}.", covered.size(), probe.size());
+        }
+        states.addAll(discoverSwitches(probe));
+        return states;
+    }
+
+    /**
+     * Opens the journal and returns the switch states it recovered that are
+     * recent enough to trust and belong to the site.
+     */
+    List<DataSwitch> openJournal(DataSite site) {
+        List<DataSwitch> recovered = new ArrayList<>();
+        if (!AppConfig.getBoolean("journal.enabled", true)) {
+            return recovered;
+        }
+        StateJournal opened = new StateJournal(Paths.get(AppConfig.getString("journal.dir", "journal")),
+                AppConfig.getInt("journal.segment.size", 16 << 20), AppConfig.getInt("journal.keep", 4));
+        try {
+            opened.open();
+        } catch (IOException e) {
+            logger.error("Could not open the journal. Running without it. Cause: {}", e.getMessage());
+            return recovered;
+        }
+        this.journal = opened;
+        long syncMs = AppConfig.getLong("journal.sync.interval", 1000);
+        tasks.every("journal-sync", syncMs, opened::sync);
+        metrics.counter("ioteste_journal_records_total", "Records appended to the journal since startup.", opened::getAppendedCount);
+
+        long oldest = System.currentTimeMillis() - journalMaxAgeMs;
+        for (StateJournal.SwitchEntry entry : opened.getSwitchStates().values()) {
+            if (entry.ts() >= oldest && site.getIndex().getSlot(entry.switchURL()) >= 0) {
+                recovered.add(new DataSwitch(entry.switchURL(), entry.active(), entry.measuredPower()));
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Joins the other instances and narrows the site to the rooms this node owns.
+     */
+    private boolean joinCluster() {
+        cluster = new ClusterMembership(brokerUrl, AppConfig.getString("cluster.topic", "ioteste/cluster/members"), nodeId,
+                AppConfig.getInt("cluster.vnodes", 64), AppConfig.getLong("cluster.settle", 2000), scheduler,
+                ring -> tasks.execute(() -> onRebalance(ring)));
+        try {
+            cluster.start(AppConfig.getInt("cluster.keepalive", 10));
         } catch (MqttException e) {
-            logger.error("Fatal MQTT connection error. Cause: {}", e.getMessage());
+            logger.error("FATAL: Could not join the cluster through {}. Cause: {}", brokerUrl, e.getMessage());
+            return false;
         } catch (InterruptedException e) {
-            logger.warn("Application interrupted.");
             Thread.currentThread().interrupt();
+            return false;
         }
+        metrics.gauge("ioteste_cluster_joined", "1 while this node is part of the cluster, 0 while it only turns switches off.",
+                () -> cluster.isJoined() ? 1 : 0);
+        if (budgetMode == BudgetCoordinator.Mode.LEASE) {
+            startBudgetLeases();
+        }
+        energyBudget = budgetCoordinator != null
+                ? budgetCoordinator
+                : site -> site.getMaxEnergy() * shardFraction;
+        if (controller instanceof DefaultController defaultController) {
+            defaultController.setEnergyBudget(energyBudget);
+        }
+        this.siteConfig = shard(fullSiteConfig);
+        return true;
     }
 
-    public DataSite loadSiteConfig() throws Exception {
-        String configURL = "http://localhost:8080/site-config";
-        logger.info("Loading site config from: {}", configURL);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(configURL))
-                .GET()
-                .build();
-        HttpResponse<String> response = this.client.send(request, BodyHandlers.ofString());
-        return new DataSite(response.body());
+    /**
+     * Lets the instances trade budget by demand through retained leases. The
+     * static split stays as the fallback while no lease is valid.
+     */
+    private void startBudgetLeases() {
+        budgetCoordinator = new BudgetCoordinator(nodeId, AppConfig.getLong("budget.lease", 5000), this::getHeatDemand,
+                () -> switchStore == null ? 0 : switchStore.snapshot().getActiveLoad(), cluster::isJoined,
+                AppConfig.getFloat("budget.floor", 0f));
+        try {
+            cluster.subscribe(budgetTopic + "/+", (topic, message) ->
+                    budgetCoordinator.onLease(SiteIndex.lastSegment(topic), message.getPayload(), System.currentTimeMillis()));
+        } catch (MqttException e) {
+            logger.warn("Could not subscribe to budget leases; using the static split. Cause: {}", e.getMessage());
+            budgetCoordinator = null;
+            return;
+        }
+        long intervalMs = AppConfig.getLong("budget.interval", 1000);
+        tasks.every("budget-lease", intervalMs, this::renewBudgetLease);
+        metrics.gauge("ioteste_budget_granted", "Energy budget this instance holds.", () -> budgetCoordinator.getGranted());
+        metrics.gauge("ioteste_budget_leased", "1 while the budget comes from a valid lease, 0 on the static split.",
+                () -> budgetCoordinator.isLeased(System.currentTimeMillis()) ? 1 : 0);
+    }
+
+    private void renewBudgetLease() {
+        long now = System.currentTimeMillis();
+        byte[] lease = budgetCoordinator.prepare(now);
+        try {
+            cluster.publishRetained(budgetTopic + "/" + nodeId, lease);
+            budgetCoordinator.renewed(now);
+        } catch (MqttException e) {
+            budgetRenewFailures.increment();
+            logger.debug("Could not renew the budget lease. Cause: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Nominal energy of the owned rooms whose last reading is below target.
+     */
+    private double getHeatDemand() {
+        SiteIndex index = siteIndex;
+        double total = 0;
+        for (Map.Entry<String, Float> entry : heatDemand.entrySet()) {
+            if (index != null && index.getRoomByName(entry.getKey()) != null) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    private void onSiteConfigLoaded(DataSite next) {
+        this.fullSiteConfig = next;
+        applySiteConfig(clusterEnabled ? shard(next) : next);
+    }
+
+    /**
+     * A node joined or left: hand over the rooms that moved.
+     */
+    private void onRebalance(HashRing ring) {
+        DataSite full = fullSiteConfig;
+        if (full != null && switchStore != null) {
+            applySiteConfig(shard(full));
+        }
+    }
+
+    /**
+     * The part of the site this node owns on the current ring, and its share
+     * of the energy budget.
+     */
+    private DataSite shard(DataSite full) {
+        HashRing ring = cluster.getRing();
+        DataSite owned = shard(full, ring, nodeId);
+        shardFraction = budgetShare(full, owned, ring.getNodes().size());
+        if (budgetCoordinator != null) {
+            Map<String, Float> shares = new HashMap<>();
+            for (String node : ring.getNodes()) {
+                shares.put(node, node.equals(nodeId) ? shardFraction
+                        : budgetShare(full, shard(full, ring, node), ring.getNodes().size()));
+            }
+            budgetCoordinator.setShares(shares, full.getMaxEnergy());
+        }
+        logger.info("Node {} owns {} of {} rooms and {}% of the energy budget.", nodeId, owned.getRooms().size(),
+                full.getRooms().size(), Math.round(shardFraction * 100));
+        return owned;
+    }
+
+    /**
+     * Rooms are placed by their switch, so rooms sharing a switch stay together.
+     */
+    static DataSite shard(DataSite full, HashRing ring, String nodeId) {
+        List<Room> owned = new ArrayList<>();
+        for (Room room : full.getRooms()) {
+            String key = room.getSwitchURL() != null ? room.getSwitchURL() : room.getName();
+            if (nodeId.equals(ring.owner(key))) {
+                owned.add(room);
+            }
+        }
+        return new DataSite(full.getMaxEnergy(), owned);
+    }
+
+    /**
+     * The share of {@code maxEnergy} that goes with the owned rooms, in
+     * proportion to their nominal energy.
+     */
+    static float budgetShare(DataSite full, DataSite owned, int nodes) {
+        float total = 0f;
+        for (Room room : full.getRooms()) {
+            total += room.getEnergy();
+        }
+        if (total <= 0f) {
+            return 1f / Math.max(1, nodes);
+        }
+        float mine = 0f;
+        for (Room room : owned.getRooms()) {
+            mine += room.getEnergy();
+        }
+        return mine / total;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "app-" + UUID.randomUUID();
+        }
+    }
+
+    private void startSiteConfigWatcher() {
+        long intervalMs = AppConfig.getLong("site.reload.interval", 30_000);
+        if (intervalMs <= 0) {
+            logger.info("Site config hot reload disabled.");
+            return;
+        }
+        siteWatcher.start(tasks, intervalMs);
     }
 
-    public void handleSensorMessage(String topic, String payload) {
+    /**
+     * Swaps in a new site config without restarting. Switch states are moved
+     * to the new index, only the sensor topics that changed are subscribed or
+     * unsubscribed, and only the switches new to the site are polled. Switches
+     * that left the site, or this shard, are turned off if they were on, since
+     * nothing would count them against the budget any more.
+     */
+    void applySiteConfig(DataSite next) {
+        siteLock.lock();
         try {
-            DataSensor sensorData = new DataSensor(payload);
-            String roomName = null;
-            String topicId = topic.substring(topic.lastIndexOf('/') + 1);
-            for (Room room : siteConfig.getRooms()) {
-                String switchURL = room.getSwitchURL();
-                String switchId = switchURL.substring(switchURL.lastIndexOf('/') + 1);
-                if (topicId.equals(switchId)) {
-                    roomName = room.getName();
-                    break;
+            DataSite previous = siteConfig;
+            SiteIndex nextIndex = next.getIndex();
+            SwitchSnapshot replaced = switchStore.reindex(nextIndex);
+            this.siteIndex = nextIndex;
+            this.siteConfig = next;
+            siteReloads.increment();
+
+            Set<String> oldTopics = sensorTopicFilters(previous, clusterEnabled);
+            Set<String> newTopics = sensorTopicFilters(next, clusterEnabled);
+            int unsubscribed = 0;
+            for (String filter : oldTopics) {
+                if (!newTopics.contains(filter)) {
+                    unsubscribeSensorTopic(filter);
+                    unsubscribed++;
                 }
             }
-            if (roomName == null) {
+            List<String> addedTopics = new ArrayList<>();
+            for (String filter : newTopics) {
+                if (!oldTopics.contains(filter)) {
+                    addedTopics.add(filter);
+                }
+            }
+            subscribeSensorTopics(addedTopics);
+            int subscribed = addedTopics.size();
+
+            for (Room room : previous.getIndex().getRooms()) {
+                if (room.getName() != null && nextIndex.getRoomByName(room.getName()) == null) {
+                    sensorDeadlines.remove(room.getName());
+                    heatDemand.remove(room.getName());
+                    if (ingestQueue != null) {
+                        ingestQueue.forget(room.getName());
+                    }
+                }
+            }
+
+            List<String> addedSwitches = new ArrayList<>();
+            for (String switchURL : nextIndex.getSwitchURLs()) {
+                if (previous.getIndex().getSlot(switchURL) < 0) {
+                    addedSwitches.add(switchURL);
+                    getSwitchStatus(switchURL, STATUS_MAX_RETRIES).whenComplete((status, e) -> {
+                        if (e != null) {
+                            logger.warn("New switch {} did not answer. Its state is unknown.", switchURL);
+                        } else if (switchStore.setIfUnknown(switchURL, status.isActive(), status.getMeasuredPower())) {
+                            journalSwitch(status);
+                        }
+                    });
+                }
+            }
+            reconciler.track(addedSwitches);
+            int removedSwitches = previous.getIndex().getSwitchCount() - (nextIndex.getSwitchCount() - addedSwitches.size());
+            executeOperations(turnOffDropped(replaced, nextIndex));
+
+            logger.info("Site config reloaded: {} rooms, {} topics subscribed, {} unsubscribed, {} new switches, {} removed.",
+                    nextIndex.getRooms().size(), subscribed, unsubscribed, addedSwitches.size(), removedSwitches);
+        } finally {
+            siteLock.unlock();
+        }
+    }
+
+    /**
+     * Topic filters for the sensors of a site: {@code <base>/+} per base topic,
+     * or with {@code perRoom} one {@code <base>/<id>} per room, so a shard only
+     * receives the readings of its own rooms.
+     */
+    static Set<String> sensorTopicFilters(DataSite site, boolean perRoom) {
+        Set<String> filters = new HashSet<>();
+        if (site == null || site.getRooms() == null) {
+            return filters;
+        }
+        for (Room room : site.getRooms()) {
+            String sensorTopic = room.getSensor();
+            if (sensorTopic == null || sensorTopic.isBlank()) {
+                continue;
+            }
+            if (sensorTopic.startsWith("mqtt:")) {
+                sensorTopic = sensorTopic.substring(5);
+            }
+            if (!perRoom) {
+                filters.add(sensorTopic + "/+");
+            } else if (room.getSwitchURL() != null) {
+                filters.add(sensorTopic + "/" + SiteIndex.lastSegment(room.getSwitchURL()));
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Subscribes to every topic in a single SUBSCRIBE, all at the sensor QoS.
+     */
+    private void subscribeSensorTopics(Collection<String> topicFilters) {
+        if (topicFilters.isEmpty() || mqttClient == null || !mqttClient.isConnected()) {
+            // connectComplete subscribes from the current config
+            return;
+        }
+        String[] filters = new String[topicFilters.size()];
+        int[] qos = new int[filters.length];
+        IMqttMessageListener[] listeners = new IMqttMessageListener[filters.length];
+        int i = 0;
+        for (String filter : topicFilters) {
+            filters[i] = filter;
+            qos[i] = sensorQos;
+            listeners[i] = (topic, message) -> handleSensorMessage(topic, message.getPayload());
+            i++;
+        }
+        logger.info("Subscribing to {} sensor topics at QoS {}: {}", filters.length, sensorQos, String.join(", ", filters));
+        try {
+            mqttClient.subscribe(filters, qos, listeners);
+        } catch (MqttException e) {
+            logger.error("Error subscribing to sensor topics.", e);
+        }
+    }
+
+    private void unsubscribeSensorTopic(String filter) {
+        if (mqttClient == null || !mqttClient.isConnected()) {
+            return;
+        }
+        logger.info("Unsubscribing from: {}", filter);
+        try {
+            mqttClient.unsubscribe(filter);
+        } catch (MqttException e) {
+            logger.error("Error unsubscribing from {}.", filter, e);
+        }
+    }
+
+    public void handleSensorMessage(String topic, byte[] payload) {
+        int slash = topic.lastIndexOf('/');
+        String filter = slash < 0 ? topic : topic.substring(0, slash);
+        messagesByTopic.computeIfAbsent(filter, f -> metrics.counter("ioteste_mqtt_messages_total",
+                "Sensor messages received per subscribed topic.", "topic", f)).increment();
+        try {
+            DataSensor sensorData;
+            try {
+                sensorData = new DataSensor(payload);
+            } catch (JsonProcessingException e) {
+                parseFailures.increment();
+                logger.warn("Discarding malformed sensor payload from topic '{}'. Cause: {}", topic, e.getOriginalMessage());
+                return;
+            }
+            String topicId = SiteIndex.lastSegment(topic);
+            Room room = siteIndex.getRoomByTopicId(topicId);
+            if (room == null) {
+                unmappedMessages.increment();
                 logger.warn("Error: Message from topic '{}' could not be mapped to a room. Topic ID: {}", topic, topicId);
                 return;
             }
-            sensorHeartbeats.put(roomName, System.currentTimeMillis());
-            sensorData.setRoom(roomName);
-            Context context = new Context(LocalDateTime.now());
-            List<DataSwitch> switchSnapshot = snapshotSwitchStatus();
-            AppData appData = new AppData(siteConfig, sensorData, switchSnapshot, context);
-
-            logger.info("--- START OF PROCESSING ---");
-            logger.info("Current time: {}", context.getCurrentTime());
-            logger.info("-------------------------------");
-
-            ControlResponse response = controller.powerManagement(appData);
-            executeOperations(response.getOperations());
-
-            if (!response.getOperations().isEmpty()) {
-                synchronized (switchLock) {
-                    for (Operation op : response.getOperations()) {
-                        for (DataSwitch ds : this.knownSwitchStatus) {
-                            if (ds.getSwitchURL().equals(op.getSwitchURL())) {
-                                ds.setActive(op.getPower());
-                                break;
-                            }
-                        }
-                    }
+            String roomName = room.getName();
+            sensorDeadlines.touch(roomName, room.getSensorTimeoutMs() > 0 ? room.getSensorTimeoutMs() : sensorTimeoutMs);
+            if (journal != null) {
+                journal.reading(roomName, sensorData.getTemperature(), System.currentTimeMillis());
+            }
+            if (budgetCoordinator != null) {
+                if (sensorData.getTemperature() < room.getExpectedTemp()) {
+                    heatDemand.put(roomName, room.getEnergy());
+                } else {
+                    heatDemand.remove(roomName);
                 }
             }
+            sensorData.setRoom(roomName);
+            if (ingestQueue != null) {
+                ingestQueue.submit(room, sensorData);
+            } else {
+                processSensorReading(room, sensorData);
+            }
         } catch (Exception e) {
             logger.error("Error processing message or executing control.", e);
         }
     }
 
+    /**
+     * Runs one control cycle for a reading. Called by the ingest queue workers,
+     * never by the MQTT delivery thread.
+     */
+    void processSensorReading(Room room, DataSensor sensorData) {
+        Context context = new Context(System.currentTimeMillis());
+        SwitchSnapshot snapshot = switchStore.snapshot();
+        AppData appData = new AppData(siteConfig, sensorData, snapshot, context);
+
+        long start = controllerLatency.start();
+        ControlResponse response = controller.powerManagement(appData);
+        long elapsed = System.nanoTime() - start;
+        controllerLatency.record(elapsed);
+        recordCycle(room.getName(), 1, sensorData.getTemperature(), snapshot, response.getOperations(), elapsed);
+        executeOperations(reserveTurnOns(withoutBlockedTurnOns(response.getOperations())));
+    }
+
+    private void recordCycle(String room, int readings, float temperature, SwitchSnapshot snapshot,
+            List<Operation> operations, long elapsedNanos) {
+        int turnOn = 0;
+        int turnOff = 0;
+        if (operations != null) {
+            for (Operation op : operations) {
+                if (op.getPower()) {
+                    turnOn++;
+                } else {
+                    turnOff++;
+                }
+            }
+        }
+        opsPerCycle.record(turnOn + turnOff);
+        eventLog.cycle(room, readings, temperature, snapshot.getActiveLoad(), turnOn, turnOff, elapsedNanos);
+    }
+
+    /**
+     * Runs one control cycle for every reading a worker drained at once, so the
+     * controller can share the energy budget across those rooms.
+     */
+    void processSensorReadings(List<SensorIngestQueue.RoomReading> batch) {
+        if (batch.size() == 1) {
+            processSensorReading(batch.get(0).room(), batch.get(0).reading());
+            return;
+        }
+        List<DataSensor> readings = new ArrayList<>(batch.size());
+        for (SensorIngestQueue.RoomReading entry : batch) {
+            readings.add(entry.reading());
+        }
+        Context context = new Context(System.currentTimeMillis());
+        SwitchSnapshot snapshot = switchStore.snapshot();
+        AppBatchData batchData = new AppBatchData(siteConfig, readings, snapshot, context);
+
+        long start = controllerLatency.start();
+        ControlResponse response = controller.powerManagementBatch(batchData);
+        long elapsed = System.nanoTime() - start;
+        controllerLatency.record(elapsed);
+        recordCycle(null, batch.size(), Float.NaN, snapshot, response.getOperations(), elapsed);
+        executeOperations(reserveTurnOns(withoutBlockedTurnOns(response.getOperations())));
+    }
+
+    /**
+     * Asks every switch for its state at once and waits for the answers until
+     * the discovery deadline. Switches that have not answered by then are left
+     * out (unknown); their requests keep running and
+     * {@link #reconcilePendingDiscovery()} records them as they arrive.
+     */
     public List<DataSwitch> getInitialSwitchesStatus() {
-        List<DataSwitch> switches = new ArrayList<>();
         if (siteConfig == null) {
+            return new ArrayList<>();
+        }
+        return discoverSwitches(siteConfig.getIndex().getSwitchURLs());
+    }
+
+    /**
+     * Discovery of the given switches; the answers are journaled.
+     */
+    private List<DataSwitch> discoverSwitches(List<String> switchURLs) {
+        List<DataSwitch> switches = new ArrayList<>();
+        if (switchURLs.isEmpty()) {
             return switches;
         }
-        for (Room room : siteConfig.getRooms()) {
-            String switchURL = room.getSwitchURL();
-            try {
-                String jsonResponse = getSwitchStatus(switchURL);
-                DataSwitch status = parseSwitchStatus(switchURL, jsonResponse);
-                switches.add(status);
-            } catch (Exception e) {
-                logger.warn("REST failure while getting initial state of switch {}. Assuming it is off.", switchURL, e);
-                switches.add(new DataSwitch(switchURL, false));
+        Map<String, CompletableFuture<DataSwitch>> discovery = new LinkedHashMap<>();
+        for (String switchURL : switchURLs) {
+            discovery.put(switchURL, getSwitchStatus(switchURL, STATUS_MAX_RETRIES));
+        }
+        try {
+            CompletableFuture.allOf(discovery.values().toArray(new CompletableFuture[0]))
+                    .get(discoveryDeadlineMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // whatever did not answer in time stays unknown
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        pendingDiscovery.clear();
+        for (Map.Entry<String, CompletableFuture<DataSwitch>> entry : discovery.entrySet()) {
+            CompletableFuture<DataSwitch> status = entry.getValue();
+            if (status.isDone() && !status.isCompletedExceptionally()) {
+                switches.add(status.join());
+                journalSwitch(status.join());
+            } else if (status.isDone()) {
+                logger.warn("REST failure while getting initial state of switch {}. Its state is unknown.", entry.getKey());
+            } else {
+                pendingDiscovery.put(entry.getKey(), status);
             }
         }
+        logger.info("Startup discovery: {} of {} switches answered within {}ms.", switches.size(), switchURLs.size(), discoveryDeadlineMs);
         return switches;
     }
 
-    private DataSwitch parseSwitchStatus(String switchURL, String jsonResponse) {
-        boolean isActive = jsonResponse.contains("\"output\": true");
-        return new DataSwitch(switchURL, isActive);
+    /**
+     * Records the discovery answers that arrive after startup, unless the
+     * switch already got a state from an acknowledged command.
+     */
+    void reconcilePendingDiscovery() {
+        for (Map.Entry<String, CompletableFuture<DataSwitch>> entry : pendingDiscovery.entrySet()) {
+            String switchURL = entry.getKey();
+            entry.getValue().whenComplete((status, e) -> {
+                pendingDiscovery.remove(switchURL);
+                if (e != null) {
+                    logger.warn("Switch {} did not answer discovery. Its state is still unknown.", switchURL);
+                } else if (switchStore.setIfUnknown(switchURL, status.isActive(), status.getMeasuredPower())) {
+                    logger.info("Late discovery answer from switch {}: {}", switchURL, status.isActive() ? "on" : "off");
+                    journalSwitch(status);
+                }
+            });
+        }
     }
 
-    private void executeOperations(List<Operation> operations) {
-        if (operations == null || operations.isEmpty()) {
-            logger.info("No operations");
-            return;
+    /**
+     * @throws CompletionException if the answer is not JSON or has no output
+     * state, so the request counts as failed.
+     */
+    private DataSwitch parseSwitchStatus(String switchURL, byte[] body) {
+        try {
+            SwitchStatus status = new SwitchStatus(body);
+            if (!status.hasOutput()) {
+                throw new CompletionException(new IOException("No output state in status of switch " + switchURL));
+            }
+            return status.toDataSwitch(switchURL);
+        } catch (JsonProcessingException e) {
+            throw new CompletionException(e);
         }
-        for (Operation op : operations) {
-            final String switchURL = op.getSwitchURL();
-            final String jsonCommand = createSwitchCommand(op.getPower());
+    }
 
-            Future<Void> future = commandExecutor.submit(() -> {
-                try {
-                    logger.info("Command sent: {} -> {}", switchURL, jsonCommand);
-                    String response = postSwitchOp(switchURL, jsonCommand);
-                } catch (Exception e) {
-                    logger.error("REST failure while sending command to switch {}.", switchURL, e);
-                }
-                return null;
-            });
+    /**
+     * Hands the operations to the dispatcher and returns right away.
+     * The switch store is only updated as each switch acknowledges its command;
+     * until then the dispatcher keeps every turn-on reserved in the store.
+     */
+    private CompletableFuture<Void> executeOperations(List<Operation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return commandDispatcher.dispatchAll(operations)
+                .exceptionally(e -> {
+                    logger.error("Error executing switch commands.", e);
+                    return null;
+                });
+    }
 
-            try {
-                future.get();
-            } catch (ExecutionException ee) {
-                logger.error("Error executing switch command for {}: {}", switchURL, ee.getCause().getMessage());
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                logger.warn("Interrupted while sending command to {}", switchURL);
-                break;
-            }
+    private void applyAcknowledgedOperation(Operation op) {
+        switchStore.setActive(op.getSwitchURL(), op.getPower());
+        controller.acknowledged(op, System.currentTimeMillis());
+        eventLog.ack(op.getSwitchURL(), op.getPower());
+        if (journal != null) {
+            journal.switchState(op.getSwitchURL(), op.getPower(), Double.NaN, System.currentTimeMillis());
         }
     }
 
-    private String createSwitchCommand(boolean power) {
-        return String.format("{\"state\": %b}", power);
+    /**
+     * Journals a state reported by the switch itself, from discovery or the
+     * reconciler, so a restart does not have to probe it again.
+     */
+    private void journalSwitch(DataSwitch status) {
+        if (journal != null) {
+            journal.switchState(status.getSwitchURL(), status.isActive(), status.getMeasuredPower(), System.currentTimeMillis());
+        }
     }
 
     private String readJsonFileAsString(String filePath) throws IOException {
@@ -363,163 +1023,201 @@ public class App {
     }
 
     private void startPeakHourMonitor() {
+        peakScheduler = new PeakHourScheduler(scheduler, TariffEngine.getDefault().cached(energyContract), prePeakWindowMs);
+        peakScheduler.addHook(new PeakHourScheduler.PeakHook() {
+            @Override
+            public void beforePeak(long peakStartTs, long windowMs) {
+                logger.info("Peak hours start in {} ms — staggering switch-offs.", windowMs);
+                prePeak = true;
+                staggerTurnOff(windowMs);
+            }
 
-        Thread peakMonitorThread = new Thread(() -> {
-            logger.info("Starting peak-hour monitor thread using contract: {}", energyContract);
-            boolean lastWasPeak = false;
-            boolean justStarted = true;
-
-            while (true) {
-                try {
-                    EnergyCost.EnergyZone zone = EnergyCost.currentEnergyZone(energyContract);
-                    boolean isPeak = (zone.current() == EnergyCost.HIGH);
-
-                    if (isPeak && !lastWasPeak && !justStarted) {
-                        logger.info("Entering peak hours — turning off all switches.");
-                        turnOffAllSwitches();
-                    } else if (!isPeak && lastWasPeak && !justStarted) {
-                        logger.info("Leaving peak hours — normal operation resumed.");
-                    } else if (isPeak && justStarted) {
-                        logger.info("App started in peak hours.");
-                        justStarted = false;
-                    } else if (!isPeak && justStarted) {
-                        logger.info("App started in non-peak hours.");
-                        justStarted = false;
-                    } 
-
-                    lastWasPeak = isPeak;
-
-                    long delay = zone.nextTS() - System.currentTimeMillis() + 1000;
-                    if (delay < 0) {
-                        delay = 5000;
-                    }
-                    Thread.sleep(delay);
+            @Override
+            public void peakStarted() {
+                logger.info("Entering peak hours — turning off all switches.");
+                prePeak = false;
+                metrics.counter("ioteste_peak_transitions_total", "Tariff zone changes seen by the peak-hour monitor.", "to", "peak").increment();
+                turnOffAllSwitches();
+            }
 
-                } catch (InterruptedException e) {
-                    logger.warn("Peak-hour monitor interrupted.");
-                    Thread.currentThread().interrupt();
-                    break;
-                } catch (Exception e) {
-                    logger.error("Error in peak-hour monitor thread", e);
-                    try {
-                        Thread.sleep(5000);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
+            @Override
+            public void peakEnded() {
+                logger.info("Leaving peak hours — normal operation resumed.");
+                prePeak = false;
+                metrics.counter("ioteste_peak_transitions_total", "Tariff zone changes seen by the peak-hour monitor.", "to", "off_peak").increment();
             }
         });
-        peakMonitorThread.setName("peakMonitorThread");
-        peakMonitorThread.setDaemon(true);
-        peakMonitorThread.start();
+        peakScheduler.start();
     }
 
-    private void turnOffAllSwitches() {
+    /**
+     * Switch-offs for the switches of {@code before} that are on or have a
+     * turn-on in flight and are not part of {@code next}.
+     */
+    private static List<Operation> turnOffDropped(SwitchSnapshot before, SiteIndex next) {
         List<Operation> operations = new ArrayList<>();
-
-        synchronized (switchLock) {
-            for (DataSwitch s : this.knownSwitchStatus) {
-                if (s.isActive()) {
-                    operations.add(new Operation(s.getSwitchURL(), false));
-                }
+        List<String> switchURLs = before.getIndex().getSwitchURLs();
+        for (int slot = 0; slot < before.size(); slot++) {
+            if (before.isActiveOrReserved(slot) && next.getSlot(switchURLs.get(slot)) < 0) {
+                operations.add(new Operation(switchURLs.get(slot), false));
             }
         }
-
         if (!operations.isEmpty()) {
-            executeOperations(operations);
+            logger.info("Turning off {} switches that are no longer part of this site.", operations.size());
+        }
+        return operations;
+    }
 
-            synchronized (switchLock) {
-                for (Operation op : operations) {
-                    for (DataSwitch ds : this.knownSwitchStatus) {
-                        if (ds.getSwitchURL().equals(op.getSwitchURL())) {
-                            ds.setActive(false);
-                        }
-                    }
-                }
+    /**
+     * Switch-offs for every switch that is on or has a turn-on in flight.
+     */
+    private List<Operation> turnOffActiveSwitches() {
+        List<Operation> operations = new ArrayList<>();
+        SwitchSnapshot snapshot = switchStore.snapshot();
+        List<String> switchURLs = snapshot.getIndex().getSwitchURLs();
+        for (int slot = 0; slot < snapshot.size(); slot++) {
+            if (snapshot.isActiveOrReserved(slot)) {
+                operations.add(new Operation(switchURLs.get(slot), false));
             }
         }
-
-        logger.info("All active switches turned off due to peak hours.");
+        return operations;
     }
 
-    private List<DataSwitch> snapshotSwitchStatus() {
-        synchronized (switchLock) {
-            List<DataSwitch> copy = new ArrayList<>(this.knownSwitchStatus.size());
-            for (DataSwitch ds : this.knownSwitchStatus) {
-                copy.add(new DataSwitch(ds.getSwitchURL(), ds.isActive()));
-            }
-            return copy;
+    /**
+     * Spreads the switch-offs over the time left before peak, one slice every
+     * {@link #STAGGER_SLICE_MS} at most, so the relays are not all hit at once.
+     */
+    private void staggerTurnOff(long windowMs) {
+        List<Operation> operations = turnOffActiveSwitches();
+        if (operations.isEmpty()) {
+            return;
+        }
+        int slices = (int) Math.max(1, Math.min(operations.size(), windowMs / STAGGER_SLICE_MS));
+        long spacing = windowMs / slices;
+        for (int s = 0; s < slices; s++) {
+            List<Operation> slice = operations.subList(s * operations.size() / slices, (s + 1) * operations.size() / slices);
+            scheduler.schedule(() -> executeOperations(slice), s * spacing, TimeUnit.MILLISECONDS);
         }
     }
 
-    private void startSensorWatchdog() {
-        Thread watchdogThread = new Thread(() -> {
-            logger.info("Starting sensor watchdog (Timeout: {}ms)", SENSOR_TIMEOUT_MS);
-            
-            while (true) {
-                try {
-                    long now = System.currentTimeMillis();
-                    List<Operation> timeoutOperations = new ArrayList<>();
-
-                    if (siteConfig != null) {
-                        for (Room room : siteConfig.getRooms()) {
-                            String rName = room.getName();
-                            Long lastHeartbeat = sensorHeartbeats.get(rName);
-
-                            if (lastHeartbeat != null && (now - lastHeartbeat) > SENSOR_TIMEOUT_MS) {
-                              
-                                boolean isSwitchOn = false;
-                                synchronized (switchLock) {
-                                    for (DataSwitch ds : knownSwitchStatus) {
-                                        if (ds.getSwitchURL().equals(room.getSwitchURL())) {
-                                            isSwitchOn = ds.isActive();
-                                            break;
-                                        }
-                                    }
-                                }
-
-                                if (isSwitchOn) {
-                                    logger.warn("ALERT: Sensor at '{}' has not responded for {} ms. Turning off switch for safety.", 
-                                                rName, (now - lastHeartbeat));
-                                    timeoutOperations.add(new Operation(room.getSwitchURL(), false));
-                                }
-                            }
-                        }
+    /**
+     * Sends every switch-off at once and reports the switches still on if they
+     * have not all acknowledged within the shutdown deadline.
+     */
+    private void turnOffAllSwitches() {
+        List<Operation> operations = turnOffActiveSwitches();
+        if (operations.isEmpty()) {
+            return;
+        }
+        executeOperations(operations)
+                .orTimeout(peakShutdownDeadlineMs, TimeUnit.MILLISECONDS)
+                .whenComplete((v, e) -> {
+                    if (e == null) {
+                        logger.info("All active switches turned off due to peak hours.");
+                        return;
                     }
+                    int stillOn = switchStore.snapshot().getActiveCount();
+                    peakShutdownLate.add(stillOn);
+                    logger.warn("Peak shutdown deadline of {}ms passed with {} switches still on.", peakShutdownDeadlineMs, stillOn);
+                });
+    }
 
-                    
-                    if (!timeoutOperations.isEmpty()) {
-                        executeOperations(timeoutOperations);
-                        
-                        
-                        synchronized (switchLock) {
-                            for (Operation op : timeoutOperations) {
-                                for (DataSwitch ds : knownSwitchStatus) {
-                                    if (ds.getSwitchURL().equals(op.getSwitchURL())) {
-                                        ds.setActive(false);
-                                    }
-                                }
-                            }
-                        }
-                    }
+    /**
+     * The controller decided on a snapshot that other workers may have used
+     * too, so every turn-on is checked against the budget again and reserved
+     * in one step; those that no longer fit are dropped. What the cycle turns
+     * off is credited, as the controller assumed.
+     */
+    private List<Operation> reserveTurnOns(List<Operation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            return operations;
+        }
+        List<String> turningOff = new ArrayList<>();
+        for (Operation op : operations) {
+            if (!op.getPower()) {
+                turningOff.add(op.getSwitchURL());
+            }
+        }
+        float maxEnergy = energyBudget.getMaxEnergy(siteConfig);
+        List<Operation> kept = new ArrayList<>(operations.size());
+        for (Operation op : operations) {
+            if (!op.getPower() || switchStore.tryReserve(op.getSwitchURL(), maxEnergy, turningOff)) {
+                kept.add(op);
+            } else {
+                budgetRejections.increment();
+                logger.debug("Turn-on of switch {} dropped: the budget was taken meanwhile.", op.getSwitchURL());
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Right before peak hours, turning heating on would only be undone moments
+     * later, and while this node is cut off from the cluster another node may
+     * control its rooms, so control cycles only keep their switch-offs.
+     */
+    private List<Operation> withoutBlockedTurnOns(List<Operation> operations) {
+        boolean detached = cluster != null && !cluster.isJoined();
+        if ((!prePeak && !detached) || operations == null) {
+            return operations;
+        }
+        List<Operation> kept = new ArrayList<>(operations.size());
+        for (Operation op : operations) {
+            if (!op.getPower()) {
+                kept.add(op);
+            }
+        }
+        return kept;
+    }
 
-                    
-                    Thread.sleep(5000);
+    /**
+     * Keeps polling the switches so states changed behind our back are noticed.
+     */
+    private void startSwitchReconciler() {
+        if (!AppConfig.getBoolean("reconcile.enabled", true)) {
+            logger.info("Switch reconciler disabled.");
+            return;
+        }
+        reconciler.start(siteIndex.getSwitchURLs(), scheduler);
+    }
 
-                } catch (InterruptedException e) {
-                    logger.warn("Watchdog interrupted");
-                    Thread.currentThread().interrupt();
-                    break;
-                } catch (Exception e) {
-                    logger.error("Error in watchdog thread", e);
-                }
+    private void startSensorWatchdog() {
+        logger.info("Starting sensor watchdog (Default timeout: {}ms)", sensorTimeoutMs);
+        metrics.gauge("ioteste_watchdog_rooms", "Rooms whose sensor deadline is being tracked.", sensorDeadlines::size);
+        sensorDeadlines.start(scheduler);
+        if (journal == null) {
+            return;
+        }
+        // rooms that were reporting before the restart must keep reporting
+        long oldest = System.currentTimeMillis() - journalMaxAgeMs;
+        for (StateJournal.ReadingEntry entry : journal.getReadings().values()) {
+            Room room = siteIndex.getRoomByName(entry.room());
+            if (room != null && entry.ts() >= oldest) {
+                sensorDeadlines.touch(room.getName(), room.getSensorTimeoutMs() > 0 ? room.getSensorTimeoutMs() : sensorTimeoutMs);
             }
-        });
-        
-        watchdogThread.setName("SensorWatchdog");
-        watchdogThread.setDaemon(true); 
-        watchdogThread.start();
+        }
     }
-}
 
+    /**
+     * Called by the timer wheel when a room's sensor missed its deadline. A
+     * switch with a turn-on in flight is turned off too. The deadline is armed
+     * again every time, since a silent sensor sends no reading to arm it: the
+     * watchdog keeps checking until one arrives, in case the turn-off failed
+     * or the switch was turned on again.
+     */
+    private void onSensorTimeout(String roomName) {
+        Room room = siteIndex.getRoomByName(roomName);
+        if (room == null) {
+            return;
+        }
+        long timeout = room.getSensorTimeoutMs() > 0 ? room.getSensorTimeoutMs() : sensorTimeoutMs;
+        sensorDeadlines.touch(roomName, timeout);
+        if (!switchStore.snapshot().isActiveOrReserved(room.getSwitchURL())) {
+            return;
+        }
+        logger.warn("ALERT: Sensor at '{}' has not responded for {} ms. Turning off switch for safety.", roomName, timeout);
+        watchdogTrips.increment();
+        eventLog.watchdog(room.getSwitchURL());
+        executeOperations(List.of(new Operation(room.getSwitchURL(), false)));
+    }
+}
@@ -0,0 +1,73 @@
+package com.ioteste.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runtime settings of the app. A key such as "ingest.policy" is read from the
+ * INGEST_POLICY environment variable first (as set in docker-compose), then from
+ * the "ingest.policy" system property, and falls back to the given default.
+ */
+public final class AppConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppConfig.class);
+
+    private AppConfig() {
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = System.getenv(key.toUpperCase().replace('.', '_'));
+        if (value == null || value.isBlank()) {
+            value = System.getProperty(key);
+        }
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for {}: '{}'. Using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static float getFloat(String key, float defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for {}: '{}'. Using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public static <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid value for {}: '{}'. Using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
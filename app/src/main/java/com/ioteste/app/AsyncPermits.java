@@ -0,0 +1,61 @@
+package com.ioteste.app;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counting semaphore that hands out permits as futures instead of blocking.
+ * Waiters are served in arrival order.
+ */
+class AsyncPermits {
+
+    private final AtomicInteger permits;
+    private final Queue<CompletableFuture<Void>> waiting = new ConcurrentLinkedQueue<>();
+
+    AsyncPermits(int permits) {
+        this.permits = new AtomicInteger(permits);
+    }
+
+    /**
+     * @return completes once a permit was granted; the caller must {@link #release()} it.
+     */
+    CompletableFuture<Void> acquire() {
+        CompletableFuture<Void> ticket = new CompletableFuture<>();
+        waiting.add(ticket);
+        drain();
+        return ticket;
+    }
+
+    void release() {
+        permits.incrementAndGet();
+        drain();
+    }
+
+    int available() {
+        return permits.get();
+    }
+
+    int waiting() {
+        return waiting.size();
+    }
+
+    private void drain() {
+        while (!waiting.isEmpty()) {
+            int available = permits.get();
+            if (available <= 0) {
+                return;
+            }
+            if (!permits.compareAndSet(available, available - 1)) {
+                continue;
+            }
+            CompletableFuture<Void> next = waiting.poll();
+            if (next == null) {
+                permits.incrementAndGet();
+            } else {
+                next.complete(null);
+            }
+        }
+    }
+}
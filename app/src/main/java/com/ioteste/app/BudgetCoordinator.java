@@ -0,0 +1,317 @@
+package com.ioteste.app;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ioteste.control.DataSite;
+import com.ioteste.control.EnergyBudget;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares {@code maxEnergy} between the instances of a sharded deployment by
+ * demand instead of by the fixed split of nominal energy.
+ * <p>
+ * Every instance publishes a retained lease with its demand, the budget it
+ * uses, the budget it claims and its current load, and renews it every
+ * interval. Each lease is numbered and carries the number of the last lease
+ * seen from every other instance. From the leases it sees, each instance runs
+ * the same max-min fair allocation and claims its own part. A lower budget
+ * applies at once. A higher one is only used once every other instance has
+ * answered with a lease that saw the claim, and only as far as what those
+ * leases use or claim leaves room, so two instances raising in the same round
+ * cannot both take the same energy. Until then an increase stops at the static
+ * share, leaving every other instance at least its own.
+ * <p>
+ * The controller only reads the last granted value, so the control cycle never
+ * waits on the broker. An instance whose lease could not be renewed for
+ * {@code leaseMs} falls back to its static share, and the others reserve that
+ * same static share for any instance whose lease they stopped seeing. An
+ * instance cut off from the cluster cannot know what the others took over, so
+ * once its lease ran out it only uses {@code safeFloor}. The others keep
+ * reserving what a departed instance held until its lease times out.
+ */
+public class BudgetCoordinator implements EnergyBudget {
+
+    public enum Mode {
+        LEASE,
+        STATIC
+    }
+
+    record Lease(long seq, double demand, double granted, double claimed, double load, Map<String, Long> seen,
+            long receivedAt) {}
+
+    private static final Logger logger = LoggerFactory.getLogger(BudgetCoordinator.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String nodeId;
+    private final long leaseMs;
+    private final DoubleSupplier demand;
+    private final DoubleSupplier load;
+    private final BooleanSupplier connected;
+    private final float safeFloor;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private volatile Map<String, Float> shares = Map.of();
+    private volatile float maxEnergy;
+    private volatile double granted;
+    private volatile double claimed;
+    private volatile double pending;
+    private volatile long seq;
+    private volatile long claimSeq;
+    private volatile long validUntil;
+
+    /**
+     * @param connected true while this instance is part of the cluster.
+     * @param safeFloor budget used without a valid lease while cut off from the cluster.
+     */
+    public BudgetCoordinator(String nodeId, long leaseMs, DoubleSupplier demand, DoubleSupplier load,
+            BooleanSupplier connected, float safeFloor) {
+        this.nodeId = nodeId;
+        this.leaseMs = leaseMs;
+        this.demand = demand;
+        this.load = load;
+        this.connected = connected;
+        this.safeFloor = safeFloor;
+    }
+
+    /**
+     * Sets the members and the static share of {@code maxEnergy} each one
+     * falls back to. Called on every rebalance and site reload. The leases of
+     * members that left are kept until they time out.
+     */
+    public void setShares(Map<String, Float> shares, float maxEnergy) {
+        this.shares = Map.copyOf(shares);
+        this.maxEnergy = maxEnergy;
+    }
+
+    /**
+     * Records the lease of another instance. An empty payload withdraws it.
+     */
+    public void onLease(String node, byte[] payload, long now) {
+        if (node.equals(nodeId)) {
+            return;
+        }
+        if (payload.length == 0) {
+            leases.remove(node);
+            return;
+        }
+        try {
+            JsonNode lease = MAPPER.readTree(payload);
+            Map<String, Long> seen = new HashMap<>();
+            lease.path("seen").fields().forEachRemaining(e -> seen.put(e.getKey(), e.getValue().asLong()));
+            leases.put(node, new Lease(lease.path("seq").asLong(), lease.path("demand").asDouble(),
+                    lease.path("granted").asDouble(), lease.path("claimed").asDouble(), lease.path("load").asDouble(),
+                    seen, now));
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable budget lease from node {}. Cause: {}", node, e.getMessage());
+        }
+    }
+
+    /**
+     * Computes this instance's next claim from the leases it sees. A lower
+     * budget applies at once; a claimed raise is taken once confirmed.
+     *
+     * @return the lease to publish.
+     */
+    public byte[] prepare(long now) {
+        double ownDemand = Math.max(demand.getAsDouble(), load.getAsDouble());
+        double ownLoad = load.getAsDouble();
+        double target = allocate(now, ownDemand);
+        double next = granted;
+        if (target < next) {
+            next = target;
+        } else {
+            // what the others use or claim stays theirs, confirmed or not; an
+            // unconfirmed raise also leaves each of them its static share
+            double raise = Math.min(Math.min(target, getStaticBudget(maxEnergy)),
+                    maxEnergy - getOthersClaimed(now, true));
+            if (claimSeq > 0 && claimed > next && isSeenByAll(claimSeq)) {
+                raise = Math.max(raise, Math.min(Math.min(claimed, target), maxEnergy - getOthersClaimed(now, false)));
+            }
+            next = Math.max(next, raise);
+        }
+        granted = next;
+        pending = target;
+        seq++;
+        StringBuilder seen = new StringBuilder();
+        leases.forEach((node, lease) -> seen.append(seen.isEmpty() ? "" : ",")
+                .append('"').append(node).append("\":").append(lease.seq()));
+        return String.format(Locale.ROOT,
+                "{\"seq\":%d,\"demand\":%.3f,\"granted\":%.3f,\"claimed\":%.3f,\"load\":%.3f,\"seen\":{%s}}",
+                seq, ownDemand, next, target, ownLoad, seen).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The lease from the last {@link #prepare(long)} reached the broker.
+     */
+    public void renewed(long now) {
+        if (pending > claimed || claimSeq == 0) {
+            claimSeq = seq;
+        }
+        claimed = pending;
+        validUntil = now + leaseMs;
+    }
+
+    /**
+     * Claims only go down between raises, so a member that saw lease
+     * {@code claimSeq} or a later one counts at least the current claim.
+     *
+     * @return true if every other member answered with a lease that saw {@code claimSeq}.
+     */
+    private boolean isSeenByAll(long claimSeq) {
+        for (String node : shares.keySet()) {
+            if (node.equals(nodeId)) {
+                continue;
+            }
+            Lease lease = leases.get(node);
+            if (lease == null || lease.seen().getOrDefault(nodeId, 0L) < claimSeq) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * What the other members use or claim, their static share if their lease
+     * is stale or, with {@code atLeastStatic}, if that is more.
+     */
+    private double getOthersClaimed(long now, boolean atLeastStatic) {
+        double total = getDepartedHeld(now);
+        for (Map.Entry<String, Float> member : shares.entrySet()) {
+            if (member.getKey().equals(nodeId)) {
+                continue;
+            }
+            Lease lease = leases.get(member.getKey());
+            double share = member.getValue() * maxEnergy;
+            if (lease != null && now - lease.receivedAt() <= leaseMs) {
+                double held = Math.max(Math.max(lease.granted(), lease.claimed()), lease.load());
+                total += atLeastStatic ? Math.max(held, share) : held;
+            } else {
+                total += share;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * What members that left the ring still hold under a lease that has not
+     * timed out; they may still be using it. Timed out leases are dropped.
+     */
+    private double getDepartedHeld(long now) {
+        Map<String, Float> members = shares;
+        double total = 0;
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            if (members.containsKey(entry.getKey())) {
+                continue;
+            }
+            Lease lease = entry.getValue();
+            if (now - lease.receivedAt() > leaseMs) {
+                leases.remove(entry.getKey(), lease);
+            } else {
+                total += Math.max(Math.max(lease.granted(), lease.claimed()), lease.load());
+            }
+        }
+        return total;
+    }
+
+    private double allocate(long now, double ownDemand) {
+        Map<String, Float> members = shares;
+        double total = Math.max(0, maxEnergy - getDepartedHeld(now));
+        List<String> nodes = new ArrayList<>(members.keySet());
+        if (!nodes.contains(nodeId)) {
+            nodes.add(nodeId);
+        }
+        Collections.sort(nodes);
+        double[] demands = new double[nodes.size()];
+        double[] weights = new double[nodes.size()];
+        int self = -1;
+        for (int i = 0; i < nodes.size(); i++) {
+            String node = nodes.get(i);
+            weights[i] = members.getOrDefault(node, 0f);
+            if (node.equals(nodeId)) {
+                demands[i] = ownDemand;
+                self = i;
+                continue;
+            }
+            Lease lease = leases.get(node);
+            if (lease != null && now - lease.receivedAt() <= leaseMs) {
+                demands[i] = lease.demand();
+            } else {
+                demands[i] = weights[i] * total;
+            }
+        }
+        return allocate(total, demands, weights)[self];
+    }
+
+    /**
+     * Max-min fair split: no one gets more than it asks for, and what is left
+     * over after every demand is met goes out in proportion to the weights.
+     */
+    static double[] allocate(double total, double[] demands, double[] weights) {
+        int n = demands.length;
+        double[] result = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(demands[a], demands[b]));
+        double remaining = total;
+        for (int i = 0; i < n; i++) {
+            int k = order[i];
+            result[k] = Math.min(Math.max(0, demands[k]), remaining / (n - i));
+            remaining -= result[k];
+        }
+        if (remaining > 0) {
+            double weightSum = 0;
+            for (double weight : weights) {
+                weightSum += weight;
+            }
+            for (int k = 0; k < n; k++) {
+                result[k] += remaining * (weightSum > 0 ? weights[k] / weightSum : 1.0 / n);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public float getMaxEnergy(DataSite site) {
+        long now = System.currentTimeMillis();
+        if (now < validUntil) {
+            return (float) granted;
+        }
+        float fallback = getStaticBudget(site.getMaxEnergy());
+        if (!connected.getAsBoolean()) {
+            return Math.min(safeFloor, fallback);
+        }
+        return (float) Math.max(0, fallback - getDepartedHeld(now));
+    }
+
+    private float getStaticBudget(float total) {
+        return total * shares.getOrDefault(nodeId, shares.isEmpty() ? 1f : 0f);
+    }
+
+    /**
+     * @return true while this instance holds a valid lease.
+     */
+    public boolean isLeased(long now) {
+        return now < validUntil;
+    }
+
+    public double getGranted() {
+        return granted;
+    }
+}
@@ -0,0 +1,62 @@
+package com.ioteste.app;
+
+/**
+ * Circuit breaker of one switch.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens and
+ * every request is refused for {@code openMs}. Then a single trial request is
+ * let through (half-open): if it succeeds the circuit closes, otherwise it
+ * opens again for another {@code openMs}.
+ */
+class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMs;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+
+    CircuitBreaker(int failureThreshold, long openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    /**
+     * @return false if the request must be refused without trying.
+     */
+    synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < openUntil) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // a trial request is already in flight
+                return false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void onFailure(long now) {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = now + openMs;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
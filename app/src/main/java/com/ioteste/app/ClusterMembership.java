@@ -0,0 +1,243 @@
+package com.ioteste.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the live app instances of a sharded deployment through the broker.
+ * <p>
+ * Each instance publishes a retained presence message under
+ * {@code <prefix>/<nodeId>} and registers an empty retained message on the
+ * same topic as its last will, so the broker clears the presence when the
+ * instance dies or drops off. Every instance subscribes to
+ * {@code <prefix>/+} and rebuilds its {@link HashRing} from what it sees.
+ * Changes are debounced by {@code settleMs} so a burst of joins (a fleet
+ * restarting) causes one rebalance, not one per node.
+ * <p>
+ * Membership uses its own clean MQTT connection, separate from the sensor
+ * session. When it drops, the broker publishes the last will and the other
+ * instances take over this node's rooms, so {@link #isJoined()} turns false
+ * until the node has reconnected and the ring had {@code settleMs} to settle.
+ */
+public class ClusterMembership {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterMembership.class);
+
+    private final String brokerUrl;
+    private final String prefix;
+    private final String nodeId;
+    private final int virtualNodes;
+    private final long settleMs;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<HashRing> onChange;
+
+    private final Set<String> members = new ConcurrentSkipListSet<>();
+    private final Map<String, IMqttMessageListener> subscriptions = new ConcurrentHashMap<>();
+    private volatile HashRing ring;
+    private volatile boolean joined;
+    private final AtomicLong connections = new AtomicLong();
+    private MqttClient client;
+    private ScheduledFuture<?> pending;
+
+    public ClusterMembership(String brokerUrl, String prefix, String nodeId, int virtualNodes, long settleMs,
+            ScheduledExecutorService scheduler, Consumer<HashRing> onChange) {
+        this.brokerUrl = brokerUrl;
+        this.prefix = prefix;
+        this.nodeId = nodeId;
+        this.virtualNodes = virtualNodes;
+        this.settleMs = settleMs;
+        this.scheduler = scheduler;
+        this.onChange = onChange;
+        members.add(nodeId);
+        this.ring = new HashRing(members, virtualNodes);
+    }
+
+    /**
+     * Joins the cluster and waits {@code settleMs} for the retained presences
+     * of the other instances, so the first ring is already complete.
+     */
+    public void start(int keepAliveSeconds) throws MqttException, InterruptedException {
+        client = new MqttClient(brokerUrl, "ioteste-cluster-" + nodeId, new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        options.setKeepAliveInterval(keepAliveSeconds);
+        options.setWill(topic(nodeId), new byte[0], 1, true);
+        client.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                if (reconnect) {
+                    // the retained presences arrive again; members that left meanwhile do not
+                    members.retainAll(Set.of(nodeId));
+                    scheduleRebalance();
+                }
+                long connection = connections.incrementAndGet();
+                announce();
+                if (reconnect) {
+                    scheduler.schedule(() -> rejoined(connection), settleMs, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                joined = false;
+                connections.incrementAndGet();
+                logger.warn("Cluster connection lost; this node only turns switches off until it rejoins.");
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                onPresence(topic, message);
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+        client.connect(options);
+        Thread.sleep(settleMs);
+        synchronized (this) {
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            ring = new HashRing(members, virtualNodes);
+        }
+        joined = client.isConnected();
+        logger.info("Node {} joined the cluster with {} nodes: {}", nodeId, members.size(), members);
+    }
+
+    /**
+     * Marks the node joined again unless the connection dropped meanwhile.
+     */
+    private void rejoined(long connection) {
+        if (connection == connections.get() && client.isConnected() && !joined) {
+            joined = true;
+            logger.info("Node {} rejoined the cluster.", nodeId);
+        }
+    }
+
+    private void announce() {
+        try {
+            client.subscribe(prefix + "/+", 1);
+            for (Map.Entry<String, IMqttMessageListener> entry : subscriptions.entrySet()) {
+                client.subscribe(entry.getKey(), 1, entry.getValue());
+            }
+            client.publish(topic(nodeId), nodeId.getBytes(StandardCharsets.UTF_8), 1, true);
+        } catch (MqttException e) {
+            logger.error("Could not announce node {} to the cluster.", nodeId, e);
+        }
+    }
+
+    private void onPresence(String topic, MqttMessage message) {
+        String node = topic.substring(topic.lastIndexOf('/') + 1);
+        boolean changed = message.getPayload().length > 0 ? members.add(node) : !node.equals(nodeId) && members.remove(node);
+        if (changed) {
+            logger.info("Cluster node {} {}.", node, message.getPayload().length > 0 ? "joined" : "left");
+            scheduleRebalance();
+        }
+    }
+
+    private synchronized void scheduleRebalance() {
+        if (pending != null && !pending.isDone()) {
+            return;
+        }
+        pending = scheduler.schedule(this::rebalance, settleMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void rebalance() {
+        HashRing next;
+        synchronized (this) {
+            next = new HashRing(members, virtualNodes);
+            if (next.getNodes().equals(ring.getNodes())) {
+                return;
+            }
+            ring = next;
+        }
+        logger.info("Rebalancing across {} nodes: {}", next.getNodes().size(), next.getNodes());
+        onChange.accept(next);
+    }
+
+    /**
+     * Leaves the cluster on purpose, clearing the presence at once instead of
+     * waiting for the broker to notice.
+     */
+    public void stop() {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.publish(topic(nodeId), new byte[0], 1, true);
+            client.disconnect();
+        } catch (MqttException e) {
+            logger.warn("Could not leave the cluster cleanly. Cause: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Subscribes on the cluster connection, now and after every reconnect.
+     */
+    public void subscribe(String filter, IMqttMessageListener listener) throws MqttException {
+        subscriptions.put(filter, listener);
+        if (client != null && client.isConnected()) {
+            client.subscribe(filter, 1, listener);
+        }
+    }
+
+    /**
+     * Publishes a retained message on the cluster connection.
+     */
+    public void publishRetained(String topic, byte[] payload) throws MqttException {
+        if (client == null || !client.isConnected()) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+        client.publish(topic, payload, 1, true);
+    }
+
+    private String topic(String node) {
+        return prefix + "/" + node;
+    }
+
+    /**
+     * @return false while the cluster connection is down or was restored less
+     * than {@code settleMs} ago; the other nodes may control this node's
+     * rooms meanwhile.
+     */
+    public boolean isJoined() {
+        return joined;
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return true if this node owns the key.
+     */
+    public boolean owns(String key) {
+        return nodeId.equals(ring.owner(key));
+    }
+}
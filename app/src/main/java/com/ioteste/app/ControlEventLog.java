@@ -0,0 +1,279 @@
+package com.ioteste.app;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous structured log of control decisions.
+ * <p>
+ * Callers copy a few primitive fields into a preallocated slot of a ring and
+ * return; nothing is formatted or allocated on their thread. A background
+ * writer turns each record into one compact {@code key=value} line on the
+ * {@code ioteste.events} logger. Records that repeat the previous decision for
+ * the same room or switch are sampled: only every {@code sampleEvery}-th one is
+ * written, with the number it stands for. When the logger is off, recording is
+ * a single level check. If the ring is full the record is dropped and counted.
+ */
+public class ControlEventLog {
+
+    private static final Logger events = LoggerFactory.getLogger("ioteste.events");
+    private static final Logger logger = LoggerFactory.getLogger(ControlEventLog.class);
+
+    private static final byte CYCLE = 0;
+    private static final byte ACK = 1;
+    private static final byte WATCHDOG = 2;
+
+    private static final class Event {
+        byte kind;
+        long timestamp;
+        String key;
+        int readings;
+        float temperature;
+        double energy;
+        int turnOn;
+        int turnOff;
+        long latencyNanos;
+        boolean power;
+    }
+
+    private static final class Sample {
+        long signature;
+        long repeated;
+    }
+
+    private final Event[] ring;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final int sampleEvery;
+
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    private final Map<String, Sample> lastByKey = new HashMap<>();
+    private final StringBuilder line = new StringBuilder(160);
+
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * @param capacity    ring size, rounded up to a power of two.
+     * @param sampleEvery write one of every this many identical consecutive records.
+     */
+    public ControlEventLog(int capacity, int sampleEvery) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new Event[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Event();
+        }
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    public static boolean isEnabled() {
+        return events.isInfoEnabled();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "ControlEventLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer after it has written everything already recorded.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * One control cycle.
+     *
+     * @param room     the room of the reading, or null for a batch of readings.
+     * @param readings how many readings the cycle decided on.
+     */
+    public void cycle(String room, int readings, float temperature, double energy, int turnOn, int turnOff, long latencyNanos) {
+        if (!events.isInfoEnabled()) {
+            return;
+        }
+        long seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        Event e = ring[(int) seq & mask];
+        e.kind = CYCLE;
+        e.timestamp = System.currentTimeMillis();
+        e.key = room;
+        e.readings = readings;
+        e.temperature = temperature;
+        e.energy = energy;
+        e.turnOn = turnOn;
+        e.turnOff = turnOff;
+        e.latencyNanos = latencyNanos;
+        publish(seq);
+    }
+
+    /**
+     * A switch acknowledged a command.
+     */
+    public void ack(String switchURL, boolean power) {
+        switchEvent(ACK, switchURL, power);
+    }
+
+    /**
+     * The watchdog turned a switch off because its sensor went silent.
+     */
+    public void watchdog(String switchURL) {
+        switchEvent(WATCHDOG, switchURL, false);
+    }
+
+    private void switchEvent(byte kind, String switchURL, boolean power) {
+        if (!events.isInfoEnabled()) {
+            return;
+        }
+        long seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        Event e = ring[(int) seq & mask];
+        e.kind = kind;
+        e.timestamp = System.currentTimeMillis();
+        e.key = switchURL;
+        e.power = power;
+        publish(seq);
+    }
+
+    public long getDroppedCount() { return dropped.sum(); }
+    public long getWrittenCount() { return written.sum(); }
+    public int getPendingCount() { return (int) (head.get() - tail); }
+
+    private long claim() {
+        while (true) {
+            long seq = head.get();
+            if (seq - tail >= ring.length) {
+                dropped.increment();
+                return -1;
+            }
+            if (head.compareAndSet(seq, seq + 1)) {
+                return seq;
+            }
+        }
+    }
+
+    private void publish(long seq) {
+        published.lazySet((int) seq & mask, seq);
+    }
+
+    private void runWriter() {
+        while (running || tail < head.get()) {
+            if (!drain()) {
+                if (!running) {
+                    // a producer claimed a slot but has not published it yet
+                    Thread.onSpinWait();
+                    continue;
+                }
+                LockSupport.parkNanos(1_000_000L);
+            }
+        }
+    }
+
+    private boolean drain() {
+        boolean any = false;
+        long next = tail;
+        while (next < head.get() && published.get((int) next & mask) == next) {
+            try {
+                write(ring[(int) next & mask]);
+            } catch (RuntimeException e) {
+                logger.error("Error writing control event.", e);
+            }
+            tail = ++next;
+            any = true;
+        }
+        return any;
+    }
+
+    private void write(Event e) {
+        long signature = signature(e);
+        String sampleKey = e.key == null ? "" : e.key;
+        Sample sample = lastByKey.get(sampleKey);
+        if (sample == null) {
+            sample = new Sample();
+            sample.signature = ~signature;
+            lastByKey.put(sampleKey, sample);
+        }
+        long repeated = 0;
+        if (sample.signature == signature) {
+            sample.repeated++;
+            if (sample.repeated % sampleEvery != 0) {
+                return;
+            }
+            repeated = sampleEvery;
+        } else {
+            sample.signature = signature;
+            sample.repeated = 0;
+        }
+
+        line.setLength(0);
+        line.append("ts=").append(e.timestamp);
+        switch (e.kind) {
+            case CYCLE -> {
+                line.append(" event=cycle");
+                if (e.key != null) {
+                    line.append(" room=").append(e.key);
+                }
+                line.append(" readings=").append(e.readings);
+                if (e.readings == 1) {
+                    line.append(" temp=").append(e.temperature);
+                }
+                line.append(" energy=").append(e.energy)
+                        .append(" on=").append(e.turnOn)
+                        .append(" off=").append(e.turnOff)
+                        .append(" ctrl_us=").append(e.latencyNanos / 1000);
+            }
+            case ACK -> line.append(" event=ack switch=").append(e.key).append(" state=").append(e.power);
+            default -> line.append(" event=watchdog switch=").append(e.key);
+        }
+        if (repeated > 0) {
+            line.append(" repeated=").append(repeated);
+        }
+        events.info(line.toString());
+        written.increment();
+    }
+
+    /**
+     * What makes two records "the same decision" for sampling purposes.
+     */
+    private static long signature(Event e) {
+        return switch (e.kind) {
+            case CYCLE -> ((long) e.turnOn << 32) | ((long) e.turnOff << 8) | CYCLE;
+            case ACK -> (e.power ? 4L : 0L) | ACK;
+            default -> WATCHDOG;
+        };
+    }
+}
@@ -0,0 +1,218 @@
+package com.ioteste.app;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Small in-process metrics registry: counters, timers, summaries and gauges,
+ * optionally with one label, rendered in the Prometheus text format.
+ * <p>
+ * Meters are created on first use and cached, so hot paths only pay a map
+ * lookup and an adder increment. Holding on to the returned meter avoids the
+ * lookup altogether.
+ */
+public class Metrics {
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public Counter counter(String name, String help, String label, String value) {
+        return (Counter) family(name, help, "counter").meters.computeIfAbsent(series(label, value), k -> new Counter());
+    }
+
+    /**
+     * A counter kept elsewhere, read on every scrape. {@code value} must never
+     * go down.
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        family(name, help, "counter").meters.put(series(null, null), new FunctionCounter(value));
+    }
+
+    /**
+     * Durations, exposed in seconds as a summary (count and sum) plus a
+     * {@code _max} gauge.
+     */
+    public Timer timer(String name, String help) {
+        return timer(name, help, null, null);
+    }
+
+    public Timer timer(String name, String help, String label, String value) {
+        return summary(name, help, label, value, Timer::new);
+    }
+
+    /**
+     * Plain amounts (for example operations per cycle), exposed as a summary
+     * plus a {@code _max} gauge.
+     */
+    public Summary summary(String name, String help) {
+        return summary(name, help, null, null, Summary::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Summary> T summary(String name, String help, String label, String value, Supplier<T> factory) {
+        return (T) family(name, help, "summary").meters.computeIfAbsent(series(label, value), series -> {
+            T summary = factory.get();
+            family(name + "_max", "Largest observation of " + name + " since startup.", "gauge").meters
+                    .put(series, new Gauge(() -> summary.getMax() * summary.scale()));
+            return summary;
+        });
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauge(name, help, null, null, value);
+    }
+
+    public void gauge(String name, String help, String label, String labelValue, DoubleSupplier value) {
+        family(name, help, "gauge").meters.put(series(label, labelValue), new Gauge(value));
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String series(String label, String value) {
+        if (label == null) {
+            return "";
+        }
+        return "{" + label + "=\"" + escape(value) + "\"}";
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : new TreeMap<>(families).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Meter> meter : new TreeMap<>(family.meters).entrySet()) {
+                meter.getValue().write(out, name, meter.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    private static final class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Meter> meters = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface Meter {
+        void write(StringBuilder out, String name, String series);
+    }
+
+    private static String withSuffix(String name, String suffix, String series) {
+        return name + suffix + series;
+    }
+
+    public static final class Counter implements Meter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() { count.increment(); }
+        public void add(long amount) { count.add(amount); }
+        public long get() { return count.sum(); }
+
+        @Override
+        public void write(StringBuilder out, String name, String series) {
+            out.append(name).append(series).append(' ').append(count.sum()).append('\n');
+        }
+    }
+
+    public static class Summary implements Meter {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long amount) {
+            count.increment();
+            sum.add(amount);
+            max.accumulateAndGet(amount, Math::max);
+        }
+
+        public long getCount() { return count.sum(); }
+        public long getSum() { return sum.sum(); }
+        public long getMax() { return max.get(); }
+
+        double scale() {
+            return 1.0;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String series) {
+            out.append(withSuffix(name, "_count", series)).append(' ').append(count.sum()).append('\n');
+            out.append(withSuffix(name, "_sum", series)).append(' ').append(sum.sum() * scale()).append('\n');
+        }
+    }
+
+    /**
+     * Records nanoseconds, exposes seconds.
+     */
+    public static final class Timer extends Summary {
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void stop(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        double scale() {
+            return 1e-9;
+        }
+    }
+
+    private static final class FunctionCounter implements Meter {
+        private final LongSupplier value;
+
+        FunctionCounter(LongSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String series) {
+            out.append(name).append(series).append(' ').append(value.getAsLong()).append('\n');
+        }
+    }
+
+    private static final class Gauge implements Meter {
+        private final DoubleSupplier value;
+
+        Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String series) {
+            out.append(name).append(series).append(' ').append(value.getAsDouble()).append('\n');
+        }
+    }
+}
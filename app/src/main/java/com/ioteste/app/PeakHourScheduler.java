@@ -0,0 +1,135 @@
+package com.ioteste.app;
+
+import com.ioteste.control.EnergyCost;
+import com.ioteste.control.TariffEngine;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fires tariff transitions of a contract as tasks on a shared scheduler.
+ * <p>
+ * Each run reads the cached zone and schedules the next run at the zone's
+ * {@code nextTS}, so nothing runs between transitions. When the next zone is
+ * peak, hooks also get a {@link PeakHook#beforePeak(long, long)} call
+ * {@code preWindowMs} before it starts. The zone found on the first run is
+ * only reported, not treated as a transition.
+ */
+public class PeakHourScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeakHourScheduler.class);
+
+    private static final long TRANSITION_SLACK_MS = 5;
+    private static final long ERROR_RETRY_MS = 5000;
+
+    public interface PeakHook {
+        /**
+         * @param peakStartTs when the peak zone starts.
+         * @param windowMs    time left until then.
+         */
+        default void beforePeak(long peakStartTs, long windowMs) {
+        }
+
+        default void peakStarted() {
+        }
+
+        default void peakEnded() {
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final TariffEngine.CachedZone tariff;
+    private final long preWindowMs;
+    private final List<PeakHook> hooks = new CopyOnWriteArrayList<>();
+
+    private Boolean lastWasPeak;
+    private long prePeakFiredFor = Long.MIN_VALUE;
+    private ScheduledFuture<?> next;
+    private volatile boolean running;
+
+    public PeakHourScheduler(ScheduledExecutorService scheduler, TariffEngine.CachedZone tariff, long preWindowMs) {
+        this.scheduler = scheduler;
+        this.tariff = tariff;
+        this.preWindowMs = preWindowMs;
+    }
+
+    public void addHook(PeakHook hook) {
+        hooks.add(hook);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        logger.info("Starting peak-hour scheduler using contract: {}", tariff.getContract());
+        reschedule(0);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (next != null) {
+            next.cancel(false);
+        }
+    }
+
+    private synchronized void reschedule(long delayMs) {
+        if (running) {
+            next = scheduler.schedule(this::run, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run() {
+        try {
+            long now = System.currentTimeMillis();
+            EnergyCost.EnergyZone zone = tariff.zoneAt(now);
+            boolean isPeak = zone.current() == EnergyCost.HIGH;
+
+            if (lastWasPeak == null) {
+                logger.info("App started in {} hours.", isPeak ? "peak" : "non-peak");
+            } else if (isPeak && !lastWasPeak) {
+                fire(PeakHook::peakStarted);
+            } else if (!isPeak && lastWasPeak) {
+                fire(PeakHook::peakEnded);
+            }
+            lastWasPeak = isPeak;
+
+            long nextRun = zone.nextTS();
+            if (!isPeak && zone.next() == EnergyCost.HIGH && preWindowMs > 0 && zone.nextTS() != Long.MAX_VALUE) {
+                long preAt = zone.nextTS() - preWindowMs;
+                if (now >= preAt && prePeakFiredFor != zone.nextTS()) {
+                    prePeakFiredFor = zone.nextTS();
+                    long peakStart = zone.nextTS();
+                    long window = peakStart - now;
+                    fire(hook -> hook.beforePeak(peakStart, window));
+                } else if (now < preAt) {
+                    nextRun = preAt;
+                }
+            }
+            if (nextRun == Long.MAX_VALUE) {
+                return;
+            }
+            reschedule(Math.max(0, nextRun - System.currentTimeMillis()) + TRANSITION_SLACK_MS);
+        } catch (RuntimeException e) {
+            logger.error("Error in peak-hour scheduler", e);
+            reschedule(ERROR_RETRY_MS);
+        }
+    }
+
+    private void fire(Consumer<PeakHook> call) {
+        for (PeakHook hook : hooks) {
+            try {
+                call.accept(hook);
+            } catch (RuntimeException e) {
+                logger.error("Error in peak-hour hook", e);
+            }
+        }
+    }
+}
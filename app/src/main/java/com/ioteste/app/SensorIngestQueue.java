@@ -0,0 +1,304 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSensor;
+import com.ioteste.control.Room;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands sensor readings from the MQTT delivery thread to a pool of control workers.
+ * <p>
+ * Rooms are assigned to a fixed partition, and each partition has one bounded
+ * ring buffer and one worker, so readings of a room are always processed in
+ * arrival order. Workers are virtual threads, so a parked or blocked worker
+ * does not hold a platform thread. What happens when a partition is full depends on the
+ * {@link BackpressurePolicy}.
+ */
+public class SensorIngestQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorIngestQueue.class);
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long STATS_LOG_INTERVAL_MS = 60_000;
+
+    public enum BackpressurePolicy {
+        /** Evict the oldest queued reading of the partition to make room. */
+        DROP_OLDEST,
+        /**
+         * Keep at most one pending reading per room; a newer one replaces it, and
+         * a reading older than the last one processed for the room is skipped.
+         */
+        COALESCE_LATEST,
+        /** Make the producer wait until the worker frees a slot. */
+        BLOCK
+    }
+
+    public record RoomReading(Room room, DataSensor reading) {
+    }
+
+    private final BackpressurePolicy policy;
+    private final Consumer<List<RoomReading>> handler;
+    private final int maxBatch;
+    private final Partition[] partitions;
+    private final Map<String, RoomMailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final AtomicLong nextStatsLog = new AtomicLong(System.currentTimeMillis() + STATS_LOG_INTERVAL_MS);
+
+    private volatile boolean running;
+
+    public SensorIngestQueue(int partitionCount, int capacityPerPartition, BackpressurePolicy policy,
+            BiConsumer<Room, DataSensor> handler) {
+        this(partitionCount, capacityPerPartition, policy, 1, batch -> {
+            for (RoomReading entry : batch) {
+                handler.accept(entry.room(), entry.reading());
+            }
+        });
+    }
+
+    /**
+     * @param maxBatch how many queued readings a worker hands to the handler at once.
+     */
+    public SensorIngestQueue(int partitionCount, int capacityPerPartition, BackpressurePolicy policy,
+            int maxBatch, Consumer<List<RoomReading>> handler) {
+        this.policy = policy;
+        this.handler = handler;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.partitions = new Partition[Math.max(1, partitionCount)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(i, capacityPerPartition);
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (Partition partition : partitions) {
+            partition.worker.start();
+        }
+        logger.info("Sensor ingest queue started: {} partitions x {} slots, policy {}",
+                partitions.length, partitions[0].ring.capacity(), policy);
+    }
+
+    public void stop() {
+        running = false;
+        for (Partition partition : partitions) {
+            LockSupport.unpark(partition.worker);
+        }
+    }
+
+    /**
+     * Queues a reading for its room's worker.
+     *
+     * @return false if the reading (or an older one it displaced) was dropped.
+     */
+    public boolean submit(Room room, DataSensor reading) {
+        Partition partition = partitionFor(room);
+        RoomReading entry = new RoomReading(room, reading);
+        submitted.increment();
+
+        boolean accepted = switch (policy) {
+            case DROP_OLDEST -> offerDropOldest(partition, entry);
+            case COALESCE_LATEST -> offerCoalescing(partition, entry);
+            case BLOCK -> offerBlocking(partition, entry);
+        };
+        partition.signal();
+        return accepted;
+    }
+
+    /**
+     * Drops the mailbox of a room that left the site, so rooms that come and
+     * go do not pile up.
+     */
+    public void forget(String roomName) {
+        mailboxes.remove(roomName);
+    }
+
+    private boolean offerDropOldest(Partition partition, RoomReading entry) {
+        boolean accepted = true;
+        while (!partition.ring.offer(entry)) {
+            if (partition.ring.poll() != null) {
+                dropped.increment();
+                accepted = false;
+            }
+        }
+        return accepted;
+    }
+
+    private boolean offerCoalescing(Partition partition, RoomReading entry) {
+        AtomicReference<RoomReading> pending = mailboxes.computeIfAbsent(entry.room().getName(), k -> new RoomMailbox()).pending;
+        if (pending.getAndSet(entry) != null) {
+            coalesced.increment();
+            return true;
+        }
+        if (partition.ring.offer(entry)) {
+            return true;
+        }
+        // More rooms than slots in this partition: nothing queued refers to the room, so drop it.
+        if (pending.getAndSet(null) != null) {
+            dropped.increment();
+        }
+        return false;
+    }
+
+    private boolean offerBlocking(Partition partition, RoomReading entry) {
+        while (!partition.ring.offer(entry)) {
+            if (!running) {
+                dropped.increment();
+                return false;
+            }
+            partition.signal();
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    private Partition partitionFor(Room room) {
+        return partitions[Math.floorMod(room.getName().hashCode(), partitions.length)];
+    }
+
+    /**
+     * Resolves a polled entry to the reading that should actually be processed,
+     * or null if it was coalesced away or is stale.
+     */
+    private RoomReading resolve(RoomReading entry) {
+        if (policy != BackpressurePolicy.COALESCE_LATEST) {
+            return entry;
+        }
+        RoomMailbox mailbox = mailboxes.get(entry.room().getName());
+        RoomReading latest = mailbox == null ? null : mailbox.pending.getAndSet(null);
+        if (latest == null) {
+            return null;
+        }
+        if (mailbox.isOlderThanLastProcessed(latest.reading())) {
+            stale.increment();
+            return null;
+        }
+        mailbox.lastProcessed = latest.reading().getDateTime();
+        return latest;
+    }
+
+    private void process(List<RoomReading> batch) {
+        try {
+            handler.accept(batch);
+        } catch (RuntimeException e) {
+            logger.error("Error processing {} reading(s), first room {}.", batch.size(), batch.get(0).room().getName(), e);
+        } finally {
+            processed.add(batch.size());
+            logStatsIfDue();
+        }
+    }
+
+    private void logStatsIfDue() {
+        long now = System.currentTimeMillis();
+        long due = nextStatsLog.get();
+        if (now < due || !nextStatsLog.compareAndSet(due, now + STATS_LOG_INTERVAL_MS)) {
+            return;
+        }
+        if (policy == BackpressurePolicy.COALESCE_LATEST) {
+            logger.info("Ingest stats: processed={}, coalesced={}, stale={}, dropped={}, coalesced/processed={}",
+                    getProcessedCount(), getCoalescedCount(), getStaleCount(), getDroppedCount(),
+                    String.format("%.2f", getCoalescedRatio()));
+        } else {
+            logger.info("Ingest stats: processed={}, dropped={}, depth={}",
+                    getProcessedCount(), getDroppedCount(), getQueueDepth());
+        }
+    }
+
+    public BackpressurePolicy getPolicy() { return policy; }
+    public long getSubmittedCount() { return submitted.sum(); }
+    public long getDroppedCount() { return dropped.sum(); }
+    public long getCoalescedCount() { return coalesced.sum(); }
+    public long getProcessedCount() { return processed.sum(); }
+    public long getStaleCount() { return stale.sum(); }
+
+    /**
+     * Readings folded into a newer one (or discarded as older than what the
+     * room already processed) per reading that reached the controller.
+     */
+    public double getCoalescedRatio() {
+        long done = processed.sum();
+        return done == 0 ? 0.0 : (double) (coalesced.sum() + stale.sum()) / done;
+    }
+    public int getPartitionCount() { return partitions.length; }
+    public int getPartitionDepth(int partition) { return partitions[partition].ring.size(); }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Partition partition : partitions) {
+            depth += partition.ring.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Latest not yet processed reading of a room, plus the sensor time of the
+     * last reading that was processed. Only the room's worker writes lastProcessed.
+     */
+    private static final class RoomMailbox {
+        private final AtomicReference<RoomReading> pending = new AtomicReference<>();
+        private volatile LocalDateTime lastProcessed;
+
+        boolean isOlderThanLastProcessed(DataSensor reading) {
+            LocalDateTime last = lastProcessed;
+            return last != null && reading.getDateTime() != null && reading.getDateTime().isBefore(last);
+        }
+    }
+
+    private final class Partition {
+        private final BoundedRingBuffer<RoomReading> ring;
+        private final Thread worker;
+        private volatile boolean parked;
+
+        Partition(int id, int capacity) {
+            this.ring = new BoundedRingBuffer<>(capacity);
+            this.worker = Thread.ofVirtual().name("controlWorker-" + id).unstarted(this::run);
+        }
+
+        void signal() {
+            if (parked) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        private void run() {
+            List<RoomReading> batch = new ArrayList<>(maxBatch);
+            while (running) {
+                RoomReading entry;
+                while (batch.size() < maxBatch && (entry = ring.poll()) != null) {
+                    RoomReading reading = resolve(entry);
+                    if (reading != null) {
+                        batch.add(reading);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    process(List.copyOf(batch));
+                    batch.clear();
+                    continue;
+                }
+                parked = true;
+                if (ring.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+        }
+    }
+}
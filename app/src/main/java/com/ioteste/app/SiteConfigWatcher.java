@@ -0,0 +1,122 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the site config and hands every new version to a listener.
+ * <p>
+ * Requests carry the last ETag in {@code If-None-Match}, so an unchanged
+ * config costs a 304 and no parsing. Servers that send no ETag are compared
+ * by body instead. A failed poll or an invalid config is logged and the
+ * current config stays in place. Every request carries its own timeout, so a
+ * config server that stalls cannot hold a task thread past it.
+ */
+public class SiteConfigWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SiteConfigWatcher.class);
+
+    private final HttpClient client;
+    private final String configURL;
+    private final Duration requestTimeout;
+    private final Consumer<DataSite> onChange;
+
+    private volatile String etag;
+    private volatile byte[] lastBody;
+    private Future<?> task;
+
+    public SiteConfigWatcher(HttpClient client, String configURL, Duration requestTimeout, Consumer<DataSite> onChange) {
+        this.client = client;
+        this.configURL = configURL;
+        this.requestTimeout = requestTimeout;
+        this.onChange = onChange;
+    }
+
+    public String getConfigURL() {
+        return configURL;
+    }
+
+    /**
+     * Fetches the config unconditionally and remembers its version.
+     */
+    public DataSite load() throws IOException, InterruptedException {
+        return fetch(false);
+    }
+
+    /**
+     * @return the new config, or null if it has not changed since the last fetch.
+     */
+    public DataSite poll() throws IOException, InterruptedException {
+        return fetch(true);
+    }
+
+    private DataSite fetch(boolean conditional) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(configURL))
+                .timeout(requestTimeout).GET();
+        String knownTag = etag;
+        if (conditional && knownTag != null) {
+            builder.header("If-None-Match", knownTag);
+        }
+        HttpResponse<byte[]> response = client.send(builder.build(), BodyHandlers.ofByteArray());
+        if (response.statusCode() == 304) {
+            return null;
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Site config answered HTTP " + response.statusCode());
+        }
+        String tag = response.headers().firstValue("ETag").orElse(null);
+        byte[] body = response.body();
+        if (conditional && (tag != null ? tag.equals(knownTag) : Arrays.equals(body, lastBody))) {
+            return null;
+        }
+        DataSite site = new DataSite(new String(body, StandardCharsets.UTF_8));
+        etag = tag;
+        lastBody = tag == null ? body : null;
+        return site;
+    }
+
+    /**
+     * Polls on a thread of {@code scope}, since every poll blocks on HTTP.
+     */
+    public synchronized void start(TaskScope scope, long intervalMs) {
+        if (task != null) {
+            return;
+        }
+        task = scope.every("site-config", intervalMs, this::check);
+        logger.info("Watching site config at {} every {}ms.", configURL, intervalMs);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(true);
+            task = null;
+        }
+    }
+
+    void check() {
+        try {
+            DataSite site = poll();
+            if (site != null) {
+                onChange.accept(site);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Could not reload site config from {}. Keeping the current one. Cause: {}", configURL, e.toString());
+        }
+    }
+}
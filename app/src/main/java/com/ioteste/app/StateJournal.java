@@ -0,0 +1,437 @@
+package com.ioteste.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of switch states (acknowledged by a command or reported
+ * by the switch) and sensor readings, so a restart can rebuild its view
+ * without probing every switch.
+ * <p>
+ * Records are appended to a memory-mapped segment file as
+ * {@code [length][crc32][type][timestamp][name][value]}; a zero length marks
+ * the end of the written part. When a segment is full the latest state of
+ * every switch and room is written to {@code snapshot.bin} (via a temporary
+ * file and an atomic rename) and a new segment is started. Older segments are
+ * kept, up to {@code keepSegments}, as an audit trail.
+ * <p>
+ * Appends only write to memory under the lock. Forcing a full segment and
+ * writing the snapshot happen on the journal's own writer thread, and
+ * {@link #sync()} forces outside the lock, so a caller appending on a delivery
+ * thread never waits for the disk.
+ * <p>
+ * {@link #open()} loads the snapshot and replays the segments written after
+ * it, stopping at the first record that is incomplete or fails its checksum.
+ * Mapped writes survive a crash of the process; {@link #sync()} forces them
+ * to disk to survive a crash of the machine.
+ */
+public class StateJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(StateJournal.class);
+
+    private static final byte SWITCH = 1;
+    private static final byte READING = 2;
+    private static final int HEADER = 8;
+    private static final int MAX_NAME = 4096;
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    public record SwitchEntry(String switchURL, boolean active, double measuredPower, long ts) { }
+
+    public record ReadingEntry(String room, float temperature, long ts) { }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int keepSegments;
+
+    private final Map<String, SwitchEntry> switches = new ConcurrentHashMap<>();
+    private final Map<String, ReadingEntry> readings = new ConcurrentHashMap<>();
+
+    private final ByteBuffer scratch = ByteBuffer.allocate(HEADER + 1 + 8 + 2 + MAX_NAME + 9);
+    private final CRC32 crc = new CRC32();
+    // not a monitor: appends run on virtual threads and rotation does file I/O
+    private final ReentrantLock lock = new ReentrantLock();
+    // forces closed segments and writes snapshots, one rotation at a time
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("journal-writer").factory());
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentSeq;
+    private long appended;
+
+    /**
+     * @param segmentSize  bytes of each mapped segment.
+     * @param keepSegments closed segments kept for auditing.
+     */
+    public StateJournal(Path dir, int segmentSize, int keepSegments) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.keepSegments = keepSegments;
+    }
+
+    /**
+     * Recovers the journaled state and gets ready to append.
+     */
+    public void open() throws IOException {
+        lock.lock();
+        try {
+            Files.createDirectories(dir);
+            long start = System.nanoTime();
+            long snapshotSeq = readSnapshot();
+            List<Long> segments = listSegments();
+            int replayed = 0;
+            long lastSeq = snapshotSeq + 1;
+            int lastEnd = 0;
+            for (long seq : segments) {
+                if (seq <= snapshotSeq) {
+                    continue;
+                }
+                try (FileChannel in = FileChannel.open(segmentPath(seq), StandardOpenOption.READ)) {
+                    ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                    lastEnd = replay(buffer);
+                    replayed++;
+                    lastSeq = seq;
+                }
+            }
+            openSegment(lastSeq, lastEnd);
+            // wipe whatever a torn write left after the last valid record
+            for (int i = lastEnd; i < segment.capacity(); i++) {
+                segment.put(i, (byte) 0);
+            }
+            logger.info("Journal recovered {} switches and {} rooms from snapshot {} and {} segments in {}ms.",
+                    switches.size(), readings.size(), snapshotSeq, replayed, (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies every valid record of the buffer.
+     *
+     * @return the position after the last valid record.
+     */
+    private int replay(ByteBuffer buffer) {
+        CRC32 check = new CRC32();
+        while (buffer.remaining() >= HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int sum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return start;
+            }
+            ByteBuffer body = buffer.slice(buffer.position(), length);
+            check.reset();
+            check.update(body.duplicate());
+            if ((int) check.getValue() != sum) {
+                logger.warn("Journal record at {} fails its checksum. Replay stops there.", start);
+                return start;
+            }
+            buffer.position(buffer.position() + length);
+            applyRecord(body);
+        }
+        return buffer.position();
+    }
+
+    private void applyRecord(ByteBuffer body) {
+        byte type = body.get();
+        long ts = body.getLong();
+        byte[] name = new byte[body.getShort() & 0xFFFF];
+        body.get(name);
+        String key = new String(name, StandardCharsets.UTF_8);
+        if (type == SWITCH) {
+            switches.put(key, new SwitchEntry(key, body.get() != 0, body.getDouble(), ts));
+        } else if (type == READING) {
+            readings.put(key, new ReadingEntry(key, body.getFloat(), ts));
+        }
+    }
+
+    /**
+     * The state maps are updated under the same lock as the append, so a
+     * snapshot never disagrees with the order of the records.
+     */
+    public void switchState(String switchURL, boolean active, double measuredPower, long ts) {
+        lock.lock();
+        try {
+            switches.put(switchURL, new SwitchEntry(switchURL, active, measuredPower, ts));
+            append(SWITCH, switchURL, ts, active, measuredPower, 0f);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void reading(String room, float temperature, long ts) {
+        lock.lock();
+        try {
+            readings.put(room, new ReadingEntry(room, temperature, ts));
+            append(READING, room, ts, false, 0.0, temperature);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(byte type, String name, long ts, boolean active, double power, float temperature) {
+        if (segment == null) {
+            return;
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME) {
+            logger.warn("Not journaling {}: name too long.", name);
+            return;
+        }
+        scratch.clear();
+        scratch.position(HEADER);
+        scratch.put(type).putLong(ts).putShort((short) nameBytes.length).put(nameBytes);
+        if (type == SWITCH) {
+            scratch.put((byte) (active ? 1 : 0)).putDouble(power);
+        } else {
+            scratch.putFloat(temperature);
+        }
+        int length = scratch.position() - HEADER;
+        crc.reset();
+        crc.update(scratch.array(), HEADER, length);
+        scratch.putInt(0, length).putInt(4, (int) crc.getValue());
+        scratch.flip();
+
+        // keep room for the zero length that ends the segment
+        if (segment.remaining() < scratch.remaining() + 4) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                logger.error("Journal rotation failed. Journaling stops.", e);
+                segment = null;
+                return;
+            }
+        }
+        // the length goes last so a torn write never looks complete
+        int at = segment.position();
+        segment.put(at + 4, scratch, 4, scratch.remaining() - 4);
+        segment.putInt(at, length);
+        segment.position(at + scratch.remaining());
+        appended++;
+    }
+
+    /**
+     * Moves on to a new segment and hands the full one to the writer, which
+     * forces it, writes the snapshot of the state as of its last record and
+     * drops the segments beyond the audit window. Called under the lock.
+     */
+    private void rotate() throws IOException {
+        MappedByteBuffer full = segment;
+        FileChannel fullChannel = channel;
+        long fullSeq = segmentSeq;
+        List<SwitchEntry> switchList = new ArrayList<>(switches.values());
+        List<ReadingEntry> readingList = new ArrayList<>(readings.values());
+        openSegment(segmentSeq + 1, 0);
+        writer.execute(() -> {
+            try {
+                full.force();
+                fullChannel.close();
+                writeSnapshot(fullSeq, switchList, readingList);
+                List<Long> segments = listSegments();
+                for (int i = 0; i < segments.size() - keepSegments - 1 && segments.get(i) <= fullSeq; i++) {
+                    Files.deleteIfExists(segmentPath(segments.get(i)));
+                }
+                logger.info("Journal compacted segment {} into snapshot.", fullSeq);
+            } catch (IOException e) {
+                // the segments stay, so a restart still replays them
+                logger.error("Journal compaction of segment {} failed.", fullSeq, e);
+            }
+        });
+    }
+
+    private void openSegment(long seq, int position) throws IOException {
+        channel = FileChannel.open(segmentPath(seq),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+        segment.position(position);
+        segmentSeq = seq;
+    }
+
+    private void writeSnapshot(long seq, List<SwitchEntry> switchList, List<ReadingEntry> readingList)
+            throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        CRC32 check = new CRC32();
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp));
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(file, check))) {
+            out.writeLong(seq);
+            out.writeInt(switchList.size());
+            for (SwitchEntry e : switchList) {
+                out.writeUTF(e.switchURL());
+                out.writeBoolean(e.active());
+                out.writeDouble(e.measuredPower());
+                out.writeLong(e.ts());
+            }
+            out.writeInt(readingList.size());
+            for (ReadingEntry e : readingList) {
+                out.writeUTF(e.room());
+                out.writeFloat(e.temperature());
+                out.writeLong(e.ts());
+            }
+            out.flush();
+            new DataOutputStream(file).writeLong(check.getValue());
+            file.flush();
+        }
+        try (FileChannel sync = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            sync.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the last segment included in the snapshot, or -1 if there is none.
+     */
+    private long readSnapshot() throws IOException {
+        Path path = dir.resolve(SNAPSHOT);
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        CRC32 check = new CRC32();
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path));
+                DataInputStream in = new DataInputStream(new CheckedInputStream(file, check))) {
+            Map<String, SwitchEntry> switchState = new ConcurrentHashMap<>();
+            Map<String, ReadingEntry> readingState = new ConcurrentHashMap<>();
+            long seq = in.readLong();
+            for (int i = in.readInt(); i > 0; i--) {
+                String url = in.readUTF();
+                switchState.put(url, new SwitchEntry(url, in.readBoolean(), in.readDouble(), in.readLong()));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                String room = in.readUTF();
+                readingState.put(room, new ReadingEntry(room, in.readFloat(), in.readLong()));
+            }
+            long expected = check.getValue();
+            if (new DataInputStream(file).readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+            switches.putAll(switchState);
+            readings.putAll(readingState);
+            return seq;
+        } catch (EOFException e) {
+            throw new IOException("Journal snapshot " + path + " is truncated.", e);
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX))
+                    .forEach(n -> segments.add(Long.parseLong(n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length()))));
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Forces the appended records to disk. Only picking the segment takes the
+     * lock; appends go on while it is forced.
+     */
+    public void sync() {
+        MappedByteBuffer current;
+        lock.lock();
+        try {
+            current = segment;
+        } finally {
+            lock.unlock();
+        }
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    /**
+     * Stops appending, waits for a compaction in progress and forces the last segment.
+     */
+    public void close() throws IOException {
+        MappedByteBuffer last;
+        FileChannel lastChannel;
+        lock.lock();
+        try {
+            last = segment;
+            lastChannel = channel;
+            segment = null;
+        } finally {
+            lock.unlock();
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (last != null) {
+            last.force();
+            lastChannel.close();
+        }
+    }
+
+    boolean isOpen() {
+        lock.lock();
+        try {
+            return segment != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, SwitchEntry> getSwitchStates() {
+        return Collections.unmodifiableMap(switches);
+    }
+
+    public Map<String, ReadingEntry> getReadings() {
+        return Collections.unmodifiableMap(readings);
+    }
+
+    public long getAppendedCount() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getSegmentSeq() {
+        lock.lock();
+        try {
+            return segmentSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.ioteste.app;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP transport to the switches.
+ * <p>
+ * Every request has a timeout and goes through two async limits, first one
+ * per host and then one for the whole app, so a slow host cannot take every
+ * connection.
+ * Each switch has a {@link CircuitBreaker}: network errors, timeouts and 5xx
+ * answers count as failures, and while the circuit is open requests fail at
+ * once with {@link CircuitOpenException}. {@link #withRetries} retries on a
+ * delayed executor with exponential backoff and full jitter, so no thread
+ * waits between attempts.
+ */
+public class SwitchClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwitchClient.class);
+
+    /**
+     * Raised instead of sending a request to a switch whose circuit is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String switchURL) {
+            super("Circuit open for switch " + switchURL);
+        }
+    }
+
+    public record Settings(Duration connectTimeout, Duration requestTimeout, HttpClient.Version version,
+            int maxInFlight, int maxPerHost, int breakerThreshold, long breakerOpenMs,
+            long backoffBaseMs, long backoffMaxMs) {
+
+        public static Settings defaults() {
+            return new Settings(Duration.ofSeconds(2), Duration.ofSeconds(3), HttpClient.Version.HTTP_1_1,
+                    256, 32, 5, 30_000, 200, 10_000);
+        }
+
+        /**
+         * Defaults overridden by the {@code switch.*} keys of {@link AppConfig}.
+         */
+        public static Settings fromConfig() {
+            Settings d = defaults();
+            return new Settings(
+                    Duration.ofMillis(AppConfig.getLong("switch.connect.timeout", d.connectTimeout().toMillis())),
+                    Duration.ofMillis(AppConfig.getLong("switch.request.timeout", d.requestTimeout().toMillis())),
+                    AppConfig.getEnum("switch.http.version", HttpClient.Version.class, d.version()),
+                    AppConfig.getInt("switch.max.inflight", d.maxInFlight()),
+                    AppConfig.getInt("switch.max.perhost", d.maxPerHost()),
+                    AppConfig.getInt("switch.breaker.threshold", d.breakerThreshold()),
+                    AppConfig.getLong("switch.breaker.open", d.breakerOpenMs()),
+                    AppConfig.getLong("switch.backoff.base", d.backoffBaseMs()),
+                    AppConfig.getLong("switch.backoff.max", d.backoffMaxMs()));
+        }
+    }
+
+    private final HttpClient client;
+    private final Settings settings;
+    private final Metrics metrics;
+
+    private final AsyncPermits globalPermits;
+    private final Map<String, AsyncPermits> hostPermits = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public SwitchClient(Settings settings, Metrics metrics) {
+        this(HttpClient.newBuilder()
+                .connectTimeout(settings.connectTimeout())
+                .version(settings.version())
+                .build(), settings, metrics);
+    }
+
+    /**
+     * Runs response handling and the callbacks chained on it on {@code executor},
+     * e.g. a {@link TaskScope} so every in-flight request gets its own virtual thread.
+     */
+    public SwitchClient(Settings settings, Metrics metrics, Executor executor) {
+        this(HttpClient.newBuilder()
+                .connectTimeout(settings.connectTimeout())
+                .version(settings.version())
+                .executor(executor)
+                .build(), settings, metrics);
+    }
+
+    public SwitchClient(HttpClient client, Settings settings, Metrics metrics) {
+        this.client = client;
+        this.settings = settings;
+        this.metrics = metrics;
+        this.globalPermits = new AsyncPermits(settings.maxInFlight());
+        metrics.gauge("ioteste_switch_circuits_open", "Switches whose circuit breaker is not closed.", this::getOpenCircuitCount);
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public CompletableFuture<HttpResponse<String>> get(String switchURL) {
+        return send(switchURL, HttpRequest.newBuilder().uri(URI.create(switchURL)).GET(), BodyHandlers.ofString());
+    }
+
+    /**
+     * GET that keeps the body as the raw bytes, for decoders that stream them.
+     */
+    public CompletableFuture<HttpResponse<byte[]>> getBytes(String switchURL) {
+        return send(switchURL, HttpRequest.newBuilder().uri(URI.create(switchURL)).GET(), BodyHandlers.ofByteArray());
+    }
+
+    public CompletableFuture<HttpResponse<String>> post(String switchURL, String json) {
+        return send(switchURL, HttpRequest.newBuilder()
+                .uri(URI.create(switchURL))
+                .header("Content-Type", "application/json")
+                .POST(BodyPublishers.ofString(json)), BodyHandlers.ofString());
+    }
+
+    /**
+     * One attempt, with no retry.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> send(String switchURL, HttpRequest.Builder builder,
+            HttpResponse.BodyHandler<T> bodyHandler) {
+        CircuitBreaker breaker = breakers.computeIfAbsent(switchURL,
+                url -> new CircuitBreaker(settings.breakerThreshold(), settings.breakerOpenMs()));
+        if (!breaker.tryAcquire(System.currentTimeMillis())) {
+            metrics.counter("ioteste_switch_circuit_rejections_total", "Requests refused by an open circuit.", "switch", switchURL).increment();
+            return CompletableFuture.failedFuture(new CircuitOpenException(switchURL));
+        }
+        HttpRequest request = builder.timeout(settings.requestTimeout()).build();
+        AsyncPermits host = hostPermits.computeIfAbsent(hostKey(request.uri()), h -> new AsyncPermits(settings.maxPerHost()));
+        Metrics.Timer latency = metrics.timer("ioteste_switch_request_seconds", "Switch request round trip.", "switch", switchURL);
+        long[] sentAt = new long[1];
+
+        // host first: requests queued behind a slow host hold none of the
+        // global permits the other hosts need
+        return host.acquire()
+                .thenCompose(v -> globalPermits.acquire())
+                .thenCompose(v -> {
+                    sentAt[0] = latency.start();
+                    return client.sendAsync(request, bodyHandler);
+                })
+                .whenComplete((response, e) -> {
+                    latency.stop(sentAt[0]);
+                    globalPermits.release();
+                    host.release();
+                    if (e == null && response.statusCode() < 500) {
+                        breaker.onSuccess();
+                    } else {
+                        breaker.onFailure(System.currentTimeMillis());
+                    }
+                });
+    }
+
+    /**
+     * Runs {@code attempt} (called with 1, 2, ...) until it succeeds, up to
+     * {@code maxAttempts} times. An open circuit is not retried.
+     */
+    public <T> CompletableFuture<T> withRetries(String switchURL, int maxAttempts, IntFunction<CompletableFuture<T>> attempt) {
+        return retry(switchURL, maxAttempts, attempt, 1);
+    }
+
+    private <T> CompletableFuture<T> retry(String switchURL, int maxAttempts, IntFunction<CompletableFuture<T>> attempt, int n) {
+        return attempt.apply(n)
+                .handle((result, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (n >= maxAttempts || cause instanceof CircuitOpenException) {
+                        return CompletableFuture.<T>failedFuture(cause);
+                    }
+                    long delay = backoffDelay(n);
+                    metrics.counter("ioteste_switch_retries_total", "Switch request retries.", "switch", switchURL).increment();
+                    logger.warn("Request to switch {} failed. Retrying ({}/{}) in {}ms. Cause: {}", switchURL, n, maxAttempts, delay, cause.toString());
+                    return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(v -> retry(switchURL, maxAttempts, attempt, n + 1));
+                })
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * Full jitter: a random delay between 0 and {@code base * 2^(attempt-1)},
+     * capped at the configured maximum.
+     */
+    long backoffDelay(int attempt) {
+        long ceiling = settings.backoffBaseMs() << Math.min(attempt - 1, 20);
+        ceiling = Math.min(Math.max(ceiling, 1), settings.backoffMaxMs());
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    CircuitBreaker.State getCircuitState(String switchURL) {
+        CircuitBreaker breaker = breakers.get(switchURL);
+        return breaker == null ? CircuitBreaker.State.CLOSED : breaker.getState();
+    }
+
+    public int getOpenCircuitCount() {
+        int open = 0;
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    private static String hostKey(URI uri) {
+        return uri.getHost() + ":" + uri.getPort();
+    }
+}
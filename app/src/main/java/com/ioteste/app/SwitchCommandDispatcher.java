@@ -0,0 +1,166 @@
+package com.ioteste.app;
+
+import com.ioteste.control.Operation;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends switch commands without blocking the caller.
+ * <p>
+ * Commands for the same switch are chained so they reach it in the order they
+ * were dispatched; commands for different switches run in parallel within the
+ * limits of the {@link SwitchClient}, which also owns timeouts, backoff and
+ * circuit breakers. The ACK listener only runs once a switch has answered
+ * HTTP 200 with a body.
+ * <p>
+ * While a turn-on is queued or in flight its switch is reserved in the
+ * {@link SwitchStateStore}, so the energy it is about to draw already counts.
+ * The reservation is cleared when the last turn-on queued for the switch is
+ * acknowledged or fails, or when a turn-off is queued behind it.
+ */
+public class SwitchCommandDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwitchCommandDispatcher.class);
+
+    private final SwitchClient client;
+    private final int maxRetries;
+    private final Consumer<Operation> ackListener;
+    private final Supplier<SwitchStateStore> reservations;
+    private final Metrics metrics;
+
+    private final Map<String, Pending> pendingBySwitch = new ConcurrentHashMap<>();
+
+    private record Pending(boolean power, CompletableFuture<Boolean> result) {
+    }
+
+    /**
+     * @param reservations the store turn-ons are reserved in; may supply null
+     * while there is none.
+     */
+    public SwitchCommandDispatcher(SwitchClient client, int maxRetries, Consumer<Operation> ackListener,
+            Supplier<SwitchStateStore> reservations, Metrics metrics) {
+        this.client = client;
+        this.maxRetries = maxRetries;
+        this.ackListener = ackListener;
+        this.reservations = reservations;
+        this.metrics = metrics;
+        metrics.gauge("ioteste_switch_commands_pending", "Switches with a command in flight or queued.", this::getPendingCount);
+    }
+
+    /**
+     * Queues one command behind any command already pending for the same switch.
+     * If the last pending command already asks for the same state, its result is reused.
+     *
+     * @return completes with true once the switch acknowledged the command, false otherwise.
+     */
+    public CompletableFuture<Boolean> dispatch(Operation op) {
+        String switchURL = op.getSwitchURL();
+        Pending queued = pendingBySwitch.compute(switchURL, (url, previous) -> {
+            if (previous != null && previous.power() == op.getPower() && !previous.result().isDone()) {
+                return previous;
+            }
+            CompletableFuture<Boolean> before = previous == null
+                    ? CompletableFuture.completedFuture(true)
+                    : previous.result().exceptionally(e -> false);
+            reserve(url, op.getPower());
+            return new Pending(op.getPower(), before.thenCompose(ignored -> send(op)));
+        });
+        CompletableFuture<Boolean> result = queued.result();
+        result.whenComplete((acked, e) -> pendingBySwitch.compute(switchURL, (url, current) -> {
+            if (queued.power() && (current == null || current == queued)) {
+                reserve(url, false);
+            }
+            return current == queued ? null : current;
+        }));
+        return result;
+    }
+
+    /**
+     * Runs under the lock {@link #pendingBySwitch} holds for the switch, so a
+     * turn-on queued meanwhile cannot lose its reservation.
+     */
+    private void reserve(String switchURL, boolean reserved) {
+        SwitchStateStore store = reservations.get();
+        if (store == null) {
+            return;
+        }
+        if (reserved) {
+            store.reserve(switchURL);
+        } else {
+            store.release(switchURL);
+        }
+    }
+
+    /**
+     * Dispatches every operation at once; the returned future completes when all of them settled.
+     */
+    public CompletableFuture<Void> dispatchAll(List<Operation> operations) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(operations.size());
+        for (Operation op : operations) {
+            results.add(dispatch(op));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
+    }
+
+    public int getPendingCount() {
+        return pendingBySwitch.size();
+    }
+
+
+    private CompletableFuture<Boolean> send(Operation op) {
+        String switchURL = op.getSwitchURL();
+        String jsonCommand = createSwitchCommand(op.getPower());
+        return client.withRetries(switchURL, maxRetries, attempt -> {
+                    logger.debug("Command sent: {} -> {} (attempt {})", switchURL, jsonCommand, attempt);
+                    return client.post(switchURL, jsonCommand);
+                })
+                .handle((response, e) -> {
+                    if (e == null) {
+                        return onResponse(op, response);
+                    }
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof SwitchClient.CircuitOpenException) {
+                        logger.warn("Command to switch {} not sent: circuit open.", switchURL);
+                    } else {
+                        logger.error("FATAL: Could not send command to switch {} after {} attempts. Cause: {}", switchURL, maxRetries, cause.toString());
+                    }
+                    failed(switchURL);
+                    return false;
+                });
+    }
+
+    private boolean onResponse(Operation op, HttpResponse<String> response) {
+        String body = response.body();
+        if (response.statusCode() == 200 && body != null && !body.isEmpty()) {
+            logger.debug("ACK received from {}: {}", op.getSwitchURL(), body);
+            try {
+                ackListener.accept(op);
+            } catch (RuntimeException e) {
+                logger.error("Error applying ACK from switch {}.", op.getSwitchURL(), e);
+            }
+            return true;
+        }
+        logger.warn("Did not receive valid ACK from switch {} (HTTP {})", op.getSwitchURL(), response.statusCode());
+        failed(op.getSwitchURL());
+        return false;
+    }
+
+    private void failed(String switchURL) {
+        metrics.counter("ioteste_switch_failures_total", "Switch commands that were never acknowledged.", "switch", switchURL).increment();
+    }
+
+    static String createSwitchCommand(boolean power) {
+        return String.format("{\"state\": %b}", power);
+    }
+}
@@ -0,0 +1,215 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSwitch;
+import com.ioteste.control.SwitchSnapshot;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the switches in the background and records the states they really
+ * have, so manual toggles and commands that silently failed do not leave the
+ * store wrong for good.
+ * <p>
+ * Each switch has its own poll interval: it starts at the minimum, doubles
+ * after every answer that matches the store (or fails), up to the maximum, and
+ * drops back to the minimum when the switch drifts. Stable switches thus cost
+ * almost nothing, whatever the size of the fleet. Polls are due on a
+ * {@link TimerWheel} and handed out by a rate limiter that gives each one its
+ * own slot, so a burst of due switches is spread instead of sent at once.
+ * <p>
+ * An answer is applied only if the switch still has the state it had when the
+ * poll was sent: an acknowledged command that landed in between always wins.
+ */
+public class SwitchReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwitchReconciler.class);
+
+    private final Supplier<SwitchStateStore> store;
+    private final Function<String, CompletableFuture<DataSwitch>> fetch;
+    private final Consumer<DataSwitch> onChange;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final long slotNanos;
+    private final TimerWheel<String> due;
+
+    private final Map<String, Long> intervals = new ConcurrentHashMap<>();
+    private long nextSlotNanos;
+    private volatile boolean running;
+    private volatile boolean stopped;
+    private volatile ScheduledExecutorService scheduler;
+
+    private final Metrics metrics;
+    private final Metrics.Counter polls;
+    private final Metrics.Counter failures;
+    private final Metrics.Counter applied;
+
+    /**
+     * @param store         where the states are read and recorded.
+     * @param fetch         one status request, without retries.
+     * @param onChange      called with every answer that changed the store.
+     * @param ratePerSecond most polls sent per second across the fleet.
+     * @param tickMs        resolution of the poll deadlines.
+     */
+    public SwitchReconciler(Supplier<SwitchStateStore> store, Function<String, CompletableFuture<DataSwitch>> fetch,
+            Consumer<DataSwitch> onChange, Metrics metrics, long minIntervalMs, long maxIntervalMs, int ratePerSecond, long tickMs) {
+        this.store = store;
+        this.fetch = fetch;
+        this.onChange = onChange;
+        this.metrics = metrics;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        this.slotNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, ratePerSecond);
+        this.due = new TimerWheel<>(tickMs, 1024, this::poll);
+        this.polls = metrics.counter("ioteste_reconcile_polls_total", "Switch status polls sent by the reconciler.");
+        this.failures = metrics.counter("ioteste_reconcile_failures_total", "Reconciler polls that got no answer.");
+        this.applied = metrics.counter("ioteste_reconcile_updates_total", "Switch states or loads changed by the reconciler.");
+        metrics.gauge("ioteste_reconcile_switches", "Switches tracked by the reconciler.", intervals::size);
+        metrics.gauge("ioteste_reconcile_unstable", "Switches polled at the minimum interval.", this::getUnstableCount);
+    }
+
+    /**
+     * Starts polling the switches, their first polls spread over the minimum interval.
+     */
+    public synchronized void start(Collection<String> switchURLs, ScheduledExecutorService scheduler) {
+        running = true;
+        this.scheduler = scheduler;
+        track(switchURLs);
+        due.start(scheduler);
+        logger.info("Switch reconciler started for {} switches ({}ms to {}ms).", switchURLs.size(), minIntervalMs, maxIntervalMs);
+    }
+
+    /**
+     * Adds switches that are not tracked yet.
+     */
+    public void track(Collection<String> switchURLs) {
+        for (String switchURL : switchURLs) {
+            if (intervals.putIfAbsent(switchURL, minIntervalMs) == null) {
+                due.touch(switchURL, 1 + ThreadLocalRandom.current().nextLong(minIntervalMs));
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        stopped = true;
+        due.stop();
+    }
+
+    /**
+     * Polls one switch now, or at the rate limiter slot it was given. The slot
+     * is kept: booking a new one on wake-up would push a large backlog back
+     * forever.
+     */
+    void poll(String switchURL) {
+        if (!intervals.containsKey(switchURL)) {
+            return;
+        }
+        long waitMs = reserveSlot();
+        if (waitMs <= 0) {
+            send(switchURL);
+        } else if (scheduler != null) {
+            scheduler.schedule(() -> send(switchURL), waitMs, TimeUnit.MILLISECONDS);
+        } else {
+            CompletableFuture.delayedExecutor(waitMs, TimeUnit.MILLISECONDS).execute(() -> send(switchURL));
+        }
+    }
+
+    private void send(String switchURL) {
+        if (stopped || !intervals.containsKey(switchURL)) {
+            return;
+        }
+        SwitchStateStore target = store.get();
+        SwitchSnapshot seen = target.snapshot();
+        int slot = seen.getIndex().getSlot(switchURL);
+        if (slot < 0) {
+            // no longer part of the site
+            intervals.remove(switchURL);
+            due.remove(switchURL);
+            return;
+        }
+        boolean wasKnown = seen.isKnown(slot);
+        boolean wasActive = seen.isActive(slot);
+        polls.increment();
+
+        fetch.apply(switchURL).whenComplete((status, e) -> {
+            long next;
+            if (e != null) {
+                failures.increment();
+                next = slower(switchURL);
+            } else {
+                boolean drift = wasKnown && wasActive != status.isActive();
+                boolean changed = target.compareAndSetStatus(switchURL, wasKnown, wasActive,
+                        status.isActive(), status.getMeasuredPower());
+                if (changed) {
+                    applied.increment();
+                    onChange.accept(status);
+                }
+                if (drift) {
+                    next = faster(switchURL);
+                    if (changed) {
+                        metrics.counter("ioteste_reconcile_drift_total", "Switches found in a state other than recorded.",
+                                "switch", switchURL).increment();
+                        logger.warn("Switch {} drifted: recorded {} but reports {}.", switchURL,
+                                wasActive ? "on" : "off", status.isActive() ? "on" : "off");
+                    }
+                } else {
+                    if (changed && !wasKnown) {
+                        logger.info("Reconciled unknown switch {}: {}", switchURL, status.isActive() ? "on" : "off");
+                    }
+                    next = slower(switchURL);
+                }
+            }
+            if (running && intervals.containsKey(switchURL)) {
+                due.touch(switchURL, next);
+            }
+        });
+    }
+
+    /**
+     * Gives the caller the next free slot of the rate limit.
+     *
+     * @return how long to wait for it, 0 if it is now.
+     */
+    private synchronized long reserveSlot() {
+        long now = System.nanoTime();
+        long slot = Math.max(nextSlotNanos, now);
+        nextSlotNanos = slot + slotNanos;
+        return TimeUnit.NANOSECONDS.toMillis(slot - now);
+    }
+
+    private long slower(String switchURL) {
+        Long interval = intervals.computeIfPresent(switchURL, (url, ms) -> Math.min(ms * 2, maxIntervalMs));
+        return interval != null ? interval : maxIntervalMs;
+    }
+
+    private long faster(String switchURL) {
+        intervals.computeIfPresent(switchURL, (url, ms) -> minIntervalMs);
+        return minIntervalMs;
+    }
+
+    long getInterval(String switchURL) {
+        return intervals.getOrDefault(switchURL, 0L);
+    }
+
+    public int getUnstableCount() {
+        int unstable = 0;
+        for (long interval : intervals.values()) {
+            if (interval <= minIntervalMs) {
+                unstable++;
+            }
+        }
+        return unstable;
+    }
+}
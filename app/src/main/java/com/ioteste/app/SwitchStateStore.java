@@ -0,0 +1,181 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSwitch;
+import com.ioteste.control.SiteIndex;
+import com.ioteste.control.SwitchSnapshot;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds the last known state of every switch as an immutable {@link SwitchSnapshot}.
+ * Readers get the current snapshot without locking or copying; writers publish
+ * a new snapshot with a compare-and-set, retrying if another writer won.
+ */
+public class SwitchStateStore {
+
+    private interface SlotChange {
+        SwitchSnapshot apply(SwitchSnapshot snapshot, int slot);
+    }
+
+    private final AtomicReference<SwitchSnapshot> current;
+
+    public SwitchStateStore(SiteIndex index) {
+        this.current = new AtomicReference<>(new SwitchSnapshot(index));
+    }
+
+    public SwitchStateStore(SiteIndex index, List<DataSwitch> initialStatus) {
+        this.current = new AtomicReference<>(SwitchSnapshot.of(index, initialStatus));
+    }
+
+    public SwitchSnapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Records the state of one switch.
+     *
+     * @return false if the switch is unknown to the site or already had that state.
+     */
+    public boolean setActive(String switchURL, boolean active) {
+        return update(switchURL, (snapshot, slot) -> snapshot.withActive(slot, active));
+    }
+
+    /**
+     * Records the state of a switch only if nothing has been recorded for it yet,
+     * so a late status answer never overrides a newer acknowledged command.
+     *
+     * @return false if the switch is unknown to the site or its state was already known.
+     */
+    public boolean setIfUnknown(String switchURL, boolean active) {
+        return setIfUnknown(switchURL, active, Double.NaN);
+    }
+
+    /**
+     * Like {@link #setIfUnknown(String, boolean)}, also recording the measured load.
+     */
+    public boolean setIfUnknown(String switchURL, boolean active, double measuredPower) {
+        return update(switchURL, (snapshot, slot) ->
+                snapshot.isKnown(slot) ? snapshot : snapshot.withStatus(slot, active, measuredPower));
+    }
+
+    /**
+     * Records the state of a switch with the load it measured (NaN if none).
+     *
+     * @return false if the switch is unknown to the site or nothing changed.
+     */
+    public boolean setStatus(String switchURL, boolean active, double measuredPower) {
+        return update(switchURL, (snapshot, slot) -> snapshot.withStatus(slot, active, measuredPower));
+    }
+
+    /**
+     * Records a polled status only if the switch still has the state the poll
+     * was sent against, so a command acknowledged in between is not undone.
+     *
+     * @return false if the switch moved meanwhile, is unknown to the site or nothing changed.
+     */
+    public boolean compareAndSetStatus(String switchURL, boolean expectedKnown, boolean expectedActive,
+            boolean active, double measuredPower) {
+        return update(switchURL, (snapshot, slot) -> snapshot.isKnown(slot) == expectedKnown
+                && (!expectedKnown || snapshot.isActive(slot) == expectedActive)
+                ? snapshot.withStatus(slot, active, measuredPower)
+                : snapshot);
+    }
+
+    /**
+     * Marks a turn-on of the switch as in flight, so its energy counts in the
+     * active load until {@link #release(String)}.
+     *
+     * @return false if the switch is unknown to the site or already reserved.
+     */
+    public boolean reserve(String switchURL) {
+        return update(switchURL, (snapshot, slot) -> snapshot.withReserved(slot, true));
+    }
+
+    /**
+     * Reserves a turn-on only if the active load, reservations included, still
+     * has room for the switch within {@code maxLoad}. Checking and reserving
+     * are one compare-and-set, so control workers deciding in parallel cannot
+     * both take the last of the budget.
+     *
+     * @param turningOff switches the caller turns off in the same cycle; what
+     * they still draw in the snapshot being replaced counts as free.
+     * @return true if the switch is reserved now or was already on or reserved.
+     */
+    public boolean tryReserve(String switchURL, float maxLoad, List<String> turningOff) {
+        while (true) {
+            SwitchSnapshot before = current.get();
+            SiteIndex index = before.getIndex();
+            int slot = index.getSlot(switchURL);
+            if (slot < 0) {
+                return false;
+            }
+            if (before.isActiveOrReserved(slot)) {
+                return true;
+            }
+            float load = (float) before.getActiveLoad();
+            for (String off : turningOff) {
+                int offSlot = index.getSlot(off);
+                if (offSlot >= 0 && before.isActiveOrReserved(offSlot)) {
+                    load -= before.isActive(offSlot) ? before.getLoad(offSlot) : index.getSwitchEnergy(offSlot);
+                }
+            }
+            if (load + index.getSwitchEnergy(slot) > maxLoad) {
+                return false;
+            }
+            if (current.compareAndSet(before, before.withReserved(slot, true))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Clears the reservation of a switch once its turn-on was acknowledged or failed.
+     *
+     * @return false if the switch is unknown to the site or was not reserved.
+     */
+    public boolean release(String switchURL) {
+        return update(switchURL, (snapshot, slot) -> snapshot.withReserved(slot, false));
+    }
+
+    /**
+     * Moves the store to a new index of the site, keeping the state of every
+     * switch that is still part of it.
+     *
+     * @return the snapshot that was replaced, the last one to know the
+     * switches that left the site.
+     */
+    public SwitchSnapshot reindex(SiteIndex index) {
+        while (true) {
+            SwitchSnapshot before = current.get();
+            if (before.getIndex() == index || current.compareAndSet(before, before.reindex(index))) {
+                return before;
+            }
+        }
+    }
+
+    /**
+     * Resolves the slot against the snapshot being replaced, so a concurrent
+     * {@link #reindex(SiteIndex)} never sends an update to the wrong switch.
+     */
+    private boolean update(String switchURL, SlotChange change) {
+        return update(snapshot -> {
+            int slot = snapshot.getIndex().getSlot(switchURL);
+            return slot < 0 ? snapshot : change.apply(snapshot, slot);
+        });
+    }
+
+    private boolean update(UnaryOperator<SwitchSnapshot> change) {
+        while (true) {
+            SwitchSnapshot before = current.get();
+            SwitchSnapshot after = change.apply(before);
+            if (after == before) {
+                return false;
+            }
+            if (current.compareAndSet(before, after)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.ioteste.app;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the background work of the app, one virtual thread per task.
+ * <p>
+ * Blocking calls (HTTP, MQTT acks, fsync) run here instead of on the
+ * scheduler, which only keeps time. How many of them run at once is bounded by
+ * permits where the work is issued (see {@link AsyncPermits}), not by the
+ * number of threads. {@link #close()} interrupts every task still running and
+ * waits for them, so nothing started by the scope outlives it.
+ */
+public class TaskScope implements Executor, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskScope.class);
+
+    private final ExecutorService executor;
+    private final long closeTimeoutMs;
+
+    public TaskScope(String name, long closeTimeoutMs) {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        this.closeTimeoutMs = closeTimeoutMs;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public Future<?> fork(Runnable task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Runs {@code task} every {@code intervalMs}, counted from the end of the
+     * previous run, until the scope closes. A failed run is logged and the
+     * next one still happens.
+     */
+    public Future<?> every(String name, long intervalMs, Runnable task) {
+        return executor.submit(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(intervalMs);
+                    task.run();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    logger.warn("Periodic task {} failed. Cause: {}", name, e.toString());
+                }
+            }
+        });
+    }
+
+    public boolean isClosed() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Cancels every running task and waits up to the close timeout for them to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(closeTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("Some tasks did not stop within {}ms.", closeTimeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
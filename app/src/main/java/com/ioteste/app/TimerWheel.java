@@ -0,0 +1,222 @@
+package com.ioteste.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timer wheel of per-key deadlines.
+ * <p>
+ * {@link #touch(Object, long)} only writes the new deadline of the key; it does
+ * not move the key inside the wheel. When the bucket a key sits in comes up,
+ * the wheel checks the deadline again: if it was pushed forward the key is
+ * re-filed in the right bucket, otherwise it expires and the listener runs
+ * once. An expired key is armed again by its next touch. Each tick only visits
+ * the keys filed in the current bucket, so the cost does not grow with the
+ * number of keys that keep their deadlines fresh.
+ * <p>
+ * The wheel is advanced by one task at a time: the thread started by
+ * {@link #start()}, a fixed-rate task on a shared scheduler
+ * ({@link #start(ScheduledExecutorService)}) or a caller of {@link #advance(long)}.
+ */
+public class TimerWheel<K> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    private static final class Entry<K> {
+        final K key;
+        volatile long deadline;
+        final AtomicBoolean armed = new AtomicBoolean();
+        volatile boolean removed;
+        long targetTick;
+
+        Entry(K key) {
+            this.key = key;
+        }
+    }
+
+    private final long tickMs;
+    private final List<Entry<K>>[] buckets;
+    private final int mask;
+    private final Consumer<K> onExpire;
+
+    private final Map<K, Entry<K>> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry<K>> arriving = new ConcurrentLinkedQueue<>();
+
+    private List<Entry<K>> spare = new ArrayList<>();
+    private long currentTick = -1;
+    private volatile boolean running;
+    private Thread ticker;
+    private ScheduledFuture<?> tickTask;
+
+    /**
+     * @param tickMs     resolution of the deadlines.
+     * @param wheelSize  number of buckets, rounded up to a power of two.
+     * @param onExpire   called on the wheel thread for every key whose deadline passed.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMs, int wheelSize, Consumer<K> onExpire) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.tickMs = tickMs;
+        this.buckets = new List[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.onExpire = onExpire;
+    }
+
+    /**
+     * Moves the deadline of the key to {@code timeoutMs} from now, arming it if
+     * it was new or had already expired.
+     */
+    public void touch(K key, long timeoutMs) {
+        Entry<K> entry = entries.computeIfAbsent(key, Entry::new);
+        entry.deadline = System.currentTimeMillis() + timeoutMs;
+        if (entry.armed.compareAndSet(false, true)) {
+            arriving.add(entry);
+        }
+    }
+
+    public void remove(K key) {
+        Entry<K> entry = entries.remove(key);
+        if (entry != null) {
+            entry.removed = true;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        ticker = new Thread(() -> {
+            while (running) {
+                try {
+                    advance(System.currentTimeMillis());
+                    Thread.sleep(tickMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (RuntimeException e) {
+                    logger.error("Error advancing timer wheel.", e);
+                }
+            }
+        }, "TimerWheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Advances the wheel every tick on {@code scheduler} instead of a thread of its own.
+     */
+    public synchronized void start(ScheduledExecutorService scheduler) {
+        if (running) {
+            return;
+        }
+        running = true;
+        tickTask = scheduler.scheduleAtFixedRate(() -> {
+            try {
+                advance(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.error("Error advancing timer wheel.", e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (ticker != null) {
+            ticker.interrupt();
+            ticker = null;
+        }
+        if (tickTask != null) {
+            tickTask.cancel(false);
+            tickTask = null;
+        }
+    }
+
+    /**
+     * Runs every tick up to {@code now} and fires the listener for what expired.
+     *
+     * @return how many keys expired.
+     */
+    public int advance(long now) {
+        long nowTick = Math.max(now / tickMs, currentTick);
+        if (currentTick < 0) {
+            currentTick = nowTick - 1;
+        }
+        Entry<K> entry;
+        while ((entry = arriving.poll()) != null) {
+            file(entry, currentTick);
+        }
+        int expired = 0;
+        long lastTick = Math.min(nowTick, currentTick + buckets.length);
+        while (currentTick < lastTick) {
+            currentTick++;
+            expired += expireBucket(currentTick, now, nowTick);
+        }
+        currentTick = nowTick;
+        return expired;
+    }
+
+    private int expireBucket(long tick, long now, long nowTick) {
+        int index = (int) tick & mask;
+        List<Entry<K>> due = buckets[index];
+        if (due.isEmpty()) {
+            return 0;
+        }
+        buckets[index] = spare;
+        int expired = 0;
+        for (Entry<K> entry : due) {
+            if (entry.removed) {
+                continue;
+            }
+            if (entry.targetTick > nowTick || entry.deadline > now) {
+                file(entry, nowTick);
+                continue;
+            }
+            entry.armed.set(false);
+            if (entry.deadline > now) {
+                // touched while expiring: keep it armed
+                if (entry.armed.compareAndSet(false, true)) {
+                    file(entry, nowTick);
+                }
+                continue;
+            }
+            expired++;
+            try {
+                onExpire.accept(entry.key);
+            } catch (RuntimeException e) {
+                logger.error("Error handling expiry of {}.", entry.key, e);
+            }
+        }
+        due.clear();
+        spare = due;
+        return expired;
+    }
+
+    /**
+     * Files the entry at its deadline, but never at or before {@code afterTick}.
+     */
+    private void file(Entry<K> entry, long afterTick) {
+        long target = Math.max(entry.deadline / tickMs, afterTick + 1);
+        entry.targetTick = target;
+        buckets[(int) target & mask].add(entry);
+    }
+}
@@ -0,0 +1,97 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.DataSwitch;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AppLifecycleTest {
+
+    private static final String SITE = """
+            { "maxEnergy": "10 kWh", "rooms": [
+              { "name": "a", "expectedTemp": "22", "energy": "1 kWh", "switch": "http://host:port/switch/a", "sensor": "mqtt:sensor/a" } ] }""";
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("metrics.enabled", "false");
+        System.setProperty("journal.dir", dir.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("metrics.enabled");
+        System.clearProperty("journal.dir");
+    }
+
+    /**
+     * Al detenerse se cancelan las tareas en curso y se cierra el journal.
+     */
+    @Test
+    void testStopCancelsTasksAndClosesJournal() throws Exception {
+        App app = new App();
+        DataSite site = new DataSite(SITE);
+        app.initialize(site, List.of(new DataSwitch("http://host:port/switch/a", false)));
+        app.openJournal(site);
+        Future<?> running = app.getTasks().every("test", 10, () -> { });
+        assertTrue(app.getJournal().isOpen());
+
+        app.stop();
+
+        assertTrue(app.getTasks().isClosed());
+        assertTrue(running.isDone(), "La tarea periódica se cancela.");
+        assertFalse(app.getJournal().isOpen(), "El journal se cierra.");
+        app.stop();
+    }
+
+    /**
+     * Tras reiniciar con un journal que solo conoce algunos switches, esos
+     * salen del journal y solo se consultan los demás, cuyo estado queda
+     * también en el journal.
+     */
+    @Test
+    void testRestartWithPartialJournal() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody("{\"output\": true, \"apower\": 500}"));
+            String journaled = "http://host:port/switch/a";
+            String probed = server.url("/switch/b").toString();
+            StateJournal previous = new StateJournal(dir, 4096, 1);
+            previous.open();
+            previous.switchState(journaled, true, Double.NaN, System.currentTimeMillis());
+            previous.close();
+
+            App app = new App();
+            DataSite site = new DataSite("""
+                    { "maxEnergy": "10 kWh", "rooms": [
+                      { "name": "a", "expectedTemp": "22", "energy": "1 kWh", "switch": "%s", "sensor": "mqtt:sensor/a" },
+                      { "name": "b", "expectedTemp": "22", "energy": "1 kWh", "switch": "%s", "sensor": "mqtt:sensor/b" } ] }"""
+                    .formatted(journaled, probed));
+            app.initialize(site, app.recoverSwitchStates(site));
+
+            assertEquals(1, server.getRequestCount(), "Solo se consulta el switch que falta en el journal.");
+            assertEquals("/switch/b", server.takeRequest().getPath());
+            assertEquals(0, app.getUnknownSwitchCount());
+            assertTrue(app.getSwitchStore().snapshot().isActive(journaled));
+            assertTrue(app.getSwitchStore().snapshot().isActive(probed));
+            assertTrue(app.getJournal().getSwitchStates().containsKey(probed), "Lo descubierto se registra.");
+            app.stop();
+        } finally {
+            server.shutdown();
+        }
+    }
+}
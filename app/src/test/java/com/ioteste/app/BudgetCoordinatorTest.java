@@ -0,0 +1,190 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BudgetCoordinatorTest {
+
+    /**
+     * Nadie recibe más de lo que pide y lo que sobra se reparte por peso.
+     */
+    @Test
+    void testMaxMinFairAllocation() {
+        double[] tight = BudgetCoordinator.allocate(10, new double[] {8, 2, 6}, new double[] {1, 1, 1});
+        assertEquals(2, tight[1], 0.001);
+        assertEquals(4, tight[0], 0.001);
+        assertEquals(4, tight[2], 0.001);
+
+        double[] loose = BudgetCoordinator.allocate(10, new double[] {1, 3}, new double[] {0.75, 0.25});
+        assertEquals(5.5, loose[0], 0.001);
+        assertEquals(4.5, loose[1], 0.001);
+    }
+
+    /**
+     * El presupuesto sigue a la demanda sin pasarse del total, y sin lease
+     * vigente cada nodo vuelve al reparto estático.
+     */
+    @Test
+    void testLeasesFollowDemandAndFallBack() {
+        DataSite site = new DataSite(10f, List.of());
+        BudgetCoordinator a = new BudgetCoordinator("a", 5000, () -> 8, () -> 0, () -> true, 0f);
+        BudgetCoordinator b = new BudgetCoordinator("b", 5000, () -> 2, () -> 0, () -> true, 0f);
+        Map<String, Float> shares = Map.of("a", 0.5f, "b", 0.5f);
+        a.setShares(shares, 10f);
+        b.setShares(shares, 10f);
+        assertEquals(5f, a.getMaxEnergy(site), 0.001f, "Sin lease se usa la parte estática.");
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            round(now + i * 1000L, a, b);
+        }
+        assertEquals(8f, a.getMaxEnergy(site), 0.001f);
+        assertEquals(2f, b.getMaxEnergy(site), 0.001f);
+
+        BudgetCoordinator c = new BudgetCoordinator("a", 5000, () -> 8, () -> 0, () -> true, 0f);
+        c.setShares(shares, 10f);
+        c.onLease("b", b.prepare(now), now);
+        c.prepare(now + 10_000);
+        c.renewed(now);
+        assertEquals(5f, c.getMaxEnergy(site), 0.001f, "Un lease vencido reserva la parte estática del otro nodo.");
+    }
+
+    /**
+     * Dos nodos que suben en la misma ronda, cada uno con una vista vieja del
+     * otro, nunca se reparten más que el total.
+     */
+    @Test
+    void testSimultaneousRaisesNeverOvercommit() {
+        double[] demandA = {0};
+        double[] demandB = {0};
+        BudgetCoordinator a = new BudgetCoordinator("a", 5000, () -> demandA[0], () -> 0, () -> true, 0f);
+        BudgetCoordinator b = new BudgetCoordinator("b", 5000, () -> demandB[0], () -> 0, () -> true, 0f);
+        Map<String, Float> shares = Map.of("a", 0.5f, "b", 0.5f);
+        a.setShares(shares, 10f);
+        b.setShares(shares, 10f);
+
+        long now = System.currentTimeMillis();
+        int i = 0;
+        for (; i < 3; i++) {
+            round(now + i * 1000L, a, b);
+        }
+        demandA[0] = 10;
+        demandB[0] = 10;
+        for (; i < 8; i++) {
+            round(now + i * 1000L, a, b);
+        }
+        assertEquals(5, a.getGranted(), 0.001);
+        assertEquals(5, b.getGranted(), 0.001);
+
+        // uno baja y el otro sube en la misma ronda
+        demandA[0] = 2;
+        demandB[0] = 8;
+        for (; i < 12; i++) {
+            round(now + i * 1000L, a, b);
+        }
+        demandA[0] = 8;
+        demandB[0] = 2;
+        for (; i < 16; i++) {
+            round(now + i * 1000L, a, b);
+        }
+        assertEquals(8, a.getGranted(), 0.001);
+        assertEquals(2, b.getGranted(), 0.001);
+
+        // a pide más justo cuando b todavía está subiendo
+        BudgetCoordinator c = new BudgetCoordinator("a", 5000, () -> demandA[0], () -> 0, () -> true, 0f);
+        BudgetCoordinator d = new BudgetCoordinator("b", 5000, () -> demandB[0], () -> 0, () -> true, 0f);
+        c.setShares(shares, 10f);
+        d.setShares(shares, 10f);
+        demandA[0] = 2;
+        demandB[0] = 8;
+        round(now, c, d);
+        round(now + 1000L, c, d);
+        demandA[0] = 8;
+        for (int k = 2; k < 8; k++) {
+            round(now + k * 1000L, c, d);
+        }
+        assertEquals(5, c.getGranted(), 0.001);
+        assertEquals(5, d.getGranted(), 0.001);
+    }
+
+    /**
+     * Un nodo aislado del cluster, sin lease vigente, se queda con el piso; los
+     * demás siguen reservando lo que tenía hasta que vence su lease.
+     */
+    @Test
+    void testPartitionNeverOvercommits() {
+        DataSite site = new DataSite(10f, List.of());
+        boolean[] connected = {true};
+        double[] demandB = {2};
+        BudgetCoordinator a = new BudgetCoordinator("a", 5000, () -> 8, () -> 0, () -> connected[0], 0f);
+        BudgetCoordinator b = new BudgetCoordinator("b", 5000, () -> demandB[0], () -> 0, () -> true, 0f);
+        Map<String, Float> shares = Map.of("a", 0.5f, "b", 0.5f);
+        a.setShares(shares, 10f);
+        b.setShares(shares, 10f);
+        long now = System.currentTimeMillis();
+        int i = 0;
+        for (; i < 4; i++) {
+            round(now + i * 1000L, a, b);
+        }
+        assertEquals(8, a.getGranted(), 0.001);
+
+        // a queda aislado: b lo saca del anillo y quiere todo
+        b.setShares(Map.of("b", 1f), 10f);
+        demandB[0] = 10;
+        long lastLease = now + (i - 1) * 1000L;
+        for (; now + i * 1000L - lastLease <= 5000; i++) {
+            b.prepare(now + i * 1000L);
+            b.renewed(now + i * 1000L);
+            assertTrue(a.getGranted() + b.getGranted() <= 10.001, "b no usa lo que a todavía puede tener.");
+        }
+        for (int k = 0; k < 3; k++, i++) {
+            b.prepare(now + i * 1000L);
+            b.renewed(now + i * 1000L);
+        }
+        assertEquals(10, b.getGranted(), 0.001, "Vencido el lease de a, b puede usar todo.");
+
+        BudgetCoordinator isolated = new BudgetCoordinator("a", 5000, () -> 8, () -> 0, () -> connected[0], 0f);
+        isolated.setShares(Map.of("a", 1f), 10f);
+        assertEquals(10f, isolated.getMaxEnergy(site), 0.001f, "Conectado y solo, usa su parte fija.");
+        connected[0] = false;
+        assertEquals(0f, isolated.getMaxEnergy(site), 0.001f, "Aislado y sin lease, usa el piso.");
+    }
+
+    /**
+     * Una ronda de renovación: todos calculan a la vez, publican y reciben
+     * los leases de los demás; en ningún momento se pasa del total.
+     */
+    private static void round(long now, BudgetCoordinator... nodes) {
+        String[] ids = {"a", "b"};
+        byte[][] leases = new byte[nodes.length][];
+        for (int n = 0; n < nodes.length; n++) {
+            leases[n] = nodes[n].prepare(now);
+            assertWithinTotal(nodes);
+        }
+        for (BudgetCoordinator node : nodes) {
+            node.renewed(now);
+        }
+        for (int n = 0; n < nodes.length; n++) {
+            for (int m = 0; m < nodes.length; m++) {
+                if (m != n) {
+                    nodes[m].onLease(ids[n], leases[n], now + 1);
+                }
+            }
+        }
+        assertWithinTotal(nodes);
+    }
+
+    private static void assertWithinTotal(BudgetCoordinator... nodes) {
+        double total = 0;
+        for (BudgetCoordinator node : nodes) {
+            total += node.getGranted();
+        }
+        assertTrue(total <= 10.001, "Se reparten " + total + " de 10.");
+    }
+}
@@ -0,0 +1,41 @@
+package com.ioteste.app;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ControlEventLogTest {
+
+    /**
+     * Con el anillo lleno los eventos se descartan sin bloquear al llamador.
+     */
+    @Test
+    void testFullRingDrops() {
+        assumeTrue(ControlEventLog.isEnabled());
+        ControlEventLog log = new ControlEventLog(4, 1);
+        for (int i = 0; i < 6; i++) {
+            log.cycle("Living", 1, 20f, 1.5, 0, 1, 1000);
+        }
+        assertEquals(4, log.getPendingCount());
+        assertEquals(2, log.getDroppedCount());
+    }
+
+    /**
+     * Las decisiones repetidas se muestrean; un cambio de decisión se escribe siempre.
+     */
+    @Test
+    void testRepeatedDecisionsAreSampled() {
+        assumeTrue(ControlEventLog.isEnabled());
+        ControlEventLog log = new ControlEventLog(64, 5);
+        for (int i = 0; i < 10; i++) {
+            log.cycle("Living", 1, 20f, 1.5, 0, 0, 1000);
+        }
+        log.cycle("Living", 1, 25f, 1.5, 0, 1, 1000);
+        log.start();
+        log.stop();
+
+        assertEquals(0, log.getPendingCount());
+        assertEquals(3, log.getWrittenCount(), "Primera decisión, una muestra de las repetidas y el cambio.");
+    }
+}
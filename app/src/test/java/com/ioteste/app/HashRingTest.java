@@ -0,0 +1,65 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.Room;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashRingTest {
+
+    /**
+     * Las claves se reparten de forma pareja y al sumar un nodo solo se mueve
+     * la parte que le toca.
+     */
+    @Test
+    void testBalanceAndMinimalMovement() {
+        HashRing three = new HashRing(List.of("app-1", "app-2", "app-3"), 64);
+        HashRing four = new HashRing(List.of("app-1", "app-2", "app-3", "app-4"), 64);
+        Map<String, Integer> load = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String key = "http://host:port/switch/" + i;
+            load.merge(three.owner(key), 1, Integer::sum);
+            String after = four.owner(key);
+            if (!after.equals(three.owner(key))) {
+                moved++;
+                assertEquals("app-4", after, "Solo se mueven claves hacia el nodo nuevo.");
+            }
+        }
+        for (int keys : load.values()) {
+            assertTrue(keys > 2500 && keys < 4200, "Reparto desparejo: " + load);
+        }
+        assertTrue(moved > 1500 && moved < 3500, "Se movieron " + moved + " claves.");
+        assertNull(new HashRing(List.of(), 64).owner("x"));
+    }
+
+    /**
+     * Cada habitación queda en un único nodo y las partes del presupuesto suman el total.
+     */
+    @Test
+    void testShardsCoverSite() {
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Room room = new Room();
+            room.setName("room" + i);
+            room.setSwitchURL("http://host:port/switch/" + i);
+            room.setEnergy(1 + i % 3);
+            rooms.add(room);
+        }
+        DataSite site = new DataSite(40f, rooms);
+        HashRing ring = new HashRing(List.of("a", "b"), 64);
+
+        DataSite a = App.shard(site, ring, "a");
+        DataSite b = App.shard(site, ring, "b");
+        assertEquals(50, a.getRooms().size() + b.getRooms().size());
+        assertEquals(1f, App.budgetShare(site, a, 2) + App.budgetShare(site, b, 2), 0.001f);
+        assertEquals(40f, a.getMaxEnergy());
+    }
+}
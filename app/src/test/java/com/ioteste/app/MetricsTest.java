@@ -0,0 +1,81 @@
+package com.ioteste.app;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    /**
+     * Contadores, timers y gauges se exponen en formato de texto de Prometheus.
+     */
+    @Test
+    void testScrapeFormat() {
+        Metrics metrics = new Metrics();
+        metrics.counter("ioteste_messages_total", "Mensajes.", "topic", "sensor/living").add(3);
+        metrics.counter("ioteste_messages_total", "Mensajes.", "topic", "sensor/living").increment();
+        metrics.timer("ioteste_latency_seconds", "Latencia.").record(2_000_000_000L);
+        metrics.gauge("ioteste_depth", "Profundidad.", () -> 7);
+
+        String text = metrics.scrape();
+
+        assertTrue(text.contains("# TYPE ioteste_messages_total counter\n"));
+        assertTrue(text.contains("ioteste_messages_total{topic=\"sensor/living\"} 4\n"), "El contador acumula por etiqueta.");
+        assertTrue(text.contains("ioteste_latency_seconds_count 1\n"));
+        assertTrue(text.contains("ioteste_latency_seconds_sum 2.0\n"), "El timer se expone en segundos.");
+        assertTrue(text.contains("ioteste_depth 7.0\n"));
+    }
+
+    /**
+     * El máximo de un timer va en un gauge aparte y los totales que se llevan
+     * en otra clase se exponen como contadores.
+     */
+    @Test
+    void testMaxGaugeAndFunctionCounter() {
+        Metrics metrics = new Metrics();
+        metrics.timer("ioteste_latency_seconds", "Latencia.", "op", "on").record(3_000_000_000L);
+        metrics.counter("ioteste_enqueued_total", "Encolados.", () -> 12L);
+
+        String text = metrics.scrape();
+
+        assertTrue(text.contains("ioteste_latency_seconds_sum{op=\"on\"} 3.0\n# HELP ioteste_latency_seconds_max "), text);
+        assertTrue(text.contains("# TYPE ioteste_latency_seconds_max gauge\nioteste_latency_seconds_max{op=\"on\"} 3.0\n"), text);
+        assertTrue(text.contains("# TYPE ioteste_enqueued_total counter\nioteste_enqueued_total 12\n"), text);
+    }
+
+    /**
+     * Un mismo nombre no puede registrarse con dos tipos distintos.
+     */
+    @Test
+    void testTypeClash() {
+        Metrics metrics = new Metrics();
+        metrics.counter("ioteste_x", "X.");
+        assertThrows(IllegalArgumentException.class, () -> metrics.gauge("ioteste_x", "X.", () -> 1));
+    }
+
+    /**
+     * El endpoint /metrics devuelve el scrape del registro.
+     */
+    @Test
+    void testScrapeEndpoint() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("ioteste_watchdog_trips_total", "Disparos.").increment();
+        MetricsServer server = new MetricsServer(metrics, "localhost", 0);
+        server.start();
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+            assertTrue(response.body().contains("ioteste_watchdog_trips_total 1\n"));
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.ioteste.app;
+
+import com.ioteste.control.EnergyCost;
+import com.ioteste.control.TariffEngine;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeakHourSchedulerTest {
+
+    /**
+     * Con un contrato de tramos de 400 ms, los hooks se disparan en orden:
+     * aviso previo, inicio y fin del horario punta.
+     */
+    @Test
+    void testHooksFollowTransitions() throws Exception {
+        TariffEngine engine = new TariffEngine();
+        engine.register("rapido", ts -> {
+            long base = ts / 400;
+            int zone = (int) (base % 2);
+            return new EnergyCost.EnergyZone(zone, (zone + 1) % 2, (base + 1) * 400);
+        });
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<String> events = new CopyOnWriteArrayList<>();
+        CountDownLatch ended = new CountDownLatch(1);
+
+        PeakHourScheduler peak = new PeakHourScheduler(scheduler, engine.cached("rapido"), 100);
+        peak.addHook(new PeakHourScheduler.PeakHook() {
+            @Override
+            public void beforePeak(long peakStartTs, long windowMs) {
+                assertTrue(windowMs <= 100);
+                events.add("before");
+            }
+
+            @Override
+            public void peakStarted() {
+                events.add("start");
+            }
+
+            @Override
+            public void peakEnded() {
+                events.add("end");
+                if (events.contains("start")) {
+                    ended.countDown();
+                }
+            }
+        });
+        peak.start();
+        try {
+            assertTrue(ended.await(5, TimeUnit.SECONDS));
+        } finally {
+            peak.stop();
+            scheduler.shutdownNow();
+        }
+
+        int start = events.indexOf("start");
+        assertTrue(start >= 0, "Se detecta el inicio del horario punta.");
+        assertEquals("before", events.get(start - 1), "El aviso previo llega antes del inicio.");
+        assertEquals("end", events.get(start + 1));
+    }
+}
@@ -0,0 +1,115 @@
+package com.ioteste.app;
+
+import com.ioteste.app.SensorIngestQueue.BackpressurePolicy;
+import com.ioteste.control.DataSensor;
+import com.ioteste.control.Room;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SensorIngestQueueTest {
+
+    private final Room living = new Room("Living", 22.0f, 1500.0f, "http://switch/living-ac", "mqtt:sensor/living");
+
+    private DataSensor reading(float temperature) throws Exception {
+        DataSensor sensor = new DataSensor("{\"src\":\"Living\"}");
+        sensor.setTemperature(temperature);
+        return sensor;
+    }
+
+    /**
+     * Con la cola llena se descartan las lecturas más viejas y el resto llega en orden.
+     */
+    @Test
+    void testDropOldestKeepsOrder() throws Exception {
+        List<Float> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        SensorIngestQueue queue = new SensorIngestQueue(1, 4, BackpressurePolicy.DROP_OLDEST, (room, data) -> {
+            seen.add(data.getTemperature());
+            done.countDown();
+        });
+
+        for (int i = 1; i <= 6; i++) {
+            queue.submit(living, reading(i));
+        }
+        assertEquals(4, queue.getQueueDepth());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(6, queue.getSubmittedCount());
+
+        queue.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        queue.stop();
+
+        assertEquals(List.of(3f, 4f, 5f, 6f), seen);
+    }
+
+    /**
+     * En modo coalesce el worker solo ve la última lectura pendiente de la habitación.
+     */
+    @Test
+    void testCoalesceLatest() throws Exception {
+        List<Float> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        SensorIngestQueue queue = new SensorIngestQueue(2, 4, BackpressurePolicy.COALESCE_LATEST, (room, data) -> {
+            seen.add(data.getTemperature());
+            done.countDown();
+        });
+
+        for (int i = 1; i <= 5; i++) {
+            queue.submit(living, reading(i));
+        }
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(4, queue.getCoalescedCount());
+        assertEquals(5, queue.getSubmittedCount());
+
+        queue.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        queue.stop();
+
+        assertEquals(List.of(5f), seen);
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    /**
+     * Una lectura con timestamp anterior a la última procesada no llega al controlador.
+     */
+    @Test
+    void testCoalesceSkipsStaleReadingsAndReportsRatio() throws Exception {
+        List<Float> seen = new CopyOnWriteArrayList<>();
+        SensorIngestQueue queue = new SensorIngestQueue(1, 4, BackpressurePolicy.COALESCE_LATEST, (room, data) -> seen.add(data.getTemperature()));
+        queue.start();
+
+        DataSensor newer = new DataSensor("{\"ts\":2000}");
+        newer.setTemperature(20f);
+        DataSensor older = new DataSensor("{\"ts\":1000}");
+        older.setTemperature(18f);
+
+        queue.submit(living, newer);
+        waitUntil(() -> queue.getProcessedCount() == 1);
+        queue.submit(living, older);
+        waitUntil(() -> queue.getStaleCount() == 1);
+        queue.submit(living, reading(21f));
+        queue.submit(living, reading(22f));
+        waitUntil(() -> queue.getProcessedCount() >= 2);
+        queue.stop();
+
+        assertEquals(20f, seen.get(0));
+        assertFalse(seen.contains(18f), "La lectura vieja no se procesa.");
+        assertTrue(queue.getCoalescedRatio() > 0);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timeout esperando la cola.");
+            Thread.sleep(5);
+        }
+    }
+}
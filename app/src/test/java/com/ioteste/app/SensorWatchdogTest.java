@@ -0,0 +1,62 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.DataSwitch;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SensorWatchdogTest {
+
+    private MockWebServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        System.setProperty("metrics.enabled", "false");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        System.clearProperty("metrics.enabled");
+        server.shutdown();
+    }
+
+    /**
+     * Si el apagado falla y el switch sigue encendido, el watchdog vuelve a
+     * dispararse en el próximo vencimiento aunque el sensor siga callado.
+     */
+    @Test
+    void testKeepsFiringWhileTheTurnOffFails() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+        }
+        String switchURL = server.url("/switch/a").toString();
+        App app = new App();
+        app.initialize(new DataSite("""
+                { "maxEnergy": "10 kWh", "rooms": [
+                  { "name": "a", "expectedTemp": "22", "energy": "1 kWh", "switch": "%s", "sensor": "mqtt:sensor/a" } ] }"""
+                .formatted(switchURL)), List.of(new DataSwitch(switchURL, true)));
+        Metrics.Counter trips = app.getMetrics().counter("ioteste_watchdog_trips_total", "");
+        TimerWheel<String> deadlines = app.getSensorDeadlines();
+        long now = System.currentTimeMillis();
+
+        deadlines.touch("a", 5_000);
+        assertEquals(1, deadlines.advance(now + 6_000));
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS), "El watchdog intenta apagar el switch.");
+        assertEquals(1, trips.get());
+
+        assertTrue(app.getSwitchStore().snapshot().isActive(switchURL), "El apagado falló.");
+        assertEquals(1, deadlines.advance(now + 12_000), "El deadline sigue armado sin lecturas nuevas.");
+        assertEquals(2, trips.get());
+    }
+}
@@ -0,0 +1,138 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.DataSwitch;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SiteConfigWatcherTest {
+
+    private static final String ROOM = """
+            { "name": "%s", "expectedTemp": "22", "energy": "1 kWh", "switch": "%s", "sensor": "mqtt:sensor/%s" }""";
+
+    private MockWebServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        System.setProperty("metrics.enabled", "false");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        System.clearProperty("metrics.enabled");
+        server.shutdown();
+    }
+
+    private String site(String... rooms) {
+        return "{ \"maxEnergy\": \"10 kWh\", \"rooms\": [" + String.join(",", rooms) + "] }";
+    }
+
+    /**
+     * Con la misma ETag el servidor responde 304 y no se notifica nada;
+     * una versión nueva llega al listener.
+     */
+    @Test
+    void testConditionalPolling() throws Exception {
+        String body = site(ROOM.formatted("a", "http://host:port/switch/a", "a"));
+        server.enqueue(new MockResponse().setResponseCode(200).setHeader("ETag", "\"v1\"").setBody(body));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        server.enqueue(new MockResponse().setResponseCode(200).setHeader("ETag", "\"v2\"")
+                .setBody(site(ROOM.formatted("a", "http://host:port/switch/a", "a"), ROOM.formatted("b", "http://host:port/switch/b", "b"))));
+        List<DataSite> changes = new ArrayList<>();
+        SiteConfigWatcher watcher = new SiteConfigWatcher(HttpClient.newHttpClient(), server.url("/site-config").toString(),
+                Duration.ofSeconds(5), changes::add);
+
+        assertEquals(1, watcher.load().getRooms().size());
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        watcher.check();
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertTrue(changes.isEmpty(), "Sin cambios no se notifica.");
+        watcher.check();
+        assertEquals(1, changes.size());
+        assertEquals(2, changes.get(0).getRooms().size());
+    }
+
+    /**
+     * Un servidor de configuración que no responde corta la consulta al vencer
+     * el timeout y no se notifica nada.
+     */
+    @Test
+    void testStalledPollTimesOut() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setHeadersDelay(3, TimeUnit.SECONDS)
+                .setBody(site(ROOM.formatted("a", "http://host:port/switch/a", "a"))));
+        List<DataSite> changes = new ArrayList<>();
+        SiteConfigWatcher watcher = new SiteConfigWatcher(HttpClient.newHttpClient(), server.url("/site-config").toString(),
+                Duration.ofMillis(200), changes::add);
+
+        long start = System.currentTimeMillis();
+        assertThrows(HttpTimeoutException.class, watcher::poll);
+        assertTrue(System.currentTimeMillis() - start < 2000, "La consulta no espera al servidor.");
+        assertTrue(changes.isEmpty());
+    }
+
+    /**
+     * Al recargar se conserva el estado de los switches que siguen y solo se
+     * consulta el switch nuevo.
+     */
+    @Test
+    void testReloadKeepsStatesAndPollsNewSwitches() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{\"output\": true, \"apower\": 500}"));
+        String kept = "http://host:port/switch/a";
+        String added = server.url("/switch/b").toString();
+        App app = new App();
+        app.initialize(new DataSite(site(ROOM.formatted("a", kept, "a"), ROOM.formatted("c", "http://host:port/switch/c", "c"))),
+                List.of(new DataSwitch(kept, true)));
+
+        DataSite next = new DataSite(site(ROOM.formatted("b", added, "b"), ROOM.formatted("a", kept, "a")));
+        app.applySiteConfig(next);
+
+        assertTrue(app.getSwitchStore().snapshot().isActive(kept), "El estado conocido se mantiene.");
+        assertSame(next.getIndex(), app.getSwitchStore().snapshot().getIndex());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (app.getUnknownSwitchCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, app.getUnknownSwitchCount());
+        assertEquals(1.5, app.getSwitchStore().snapshot().getActiveLoad(), 0.001);
+        assertEquals(1, server.getRequestCount(), "Solo se consulta el switch nuevo.");
+        assertEquals(Set.of("sensor/a/+", "sensor/b/+"), App.sensorTopicFilters(next, false));
+    }
+
+    /**
+     * Un switch encendido que deja de ser parte del sitio se apaga, porque
+     * nadie lo contaría más contra el presupuesto.
+     */
+    @Test
+    void testReloadTurnsOffDroppedSwitches() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{\"was_on\": true}"));
+        String kept = "http://host:port/switch/a";
+        String dropped = server.url("/switch/c").toString();
+        App app = new App();
+        app.initialize(new DataSite(site(ROOM.formatted("a", kept, "a"), ROOM.formatted("c", dropped, "c"))),
+                List.of(new DataSwitch(kept, false), new DataSwitch(dropped, true)));
+
+        app.applySiteConfig(new DataSite(site(ROOM.formatted("a", kept, "a"))));
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request, "El switch que salió del sitio debe apagarse.");
+        assertEquals("POST", request.getMethod());
+        assertEquals("{\"state\": false}", request.getBody().readUtf8());
+    }
+}
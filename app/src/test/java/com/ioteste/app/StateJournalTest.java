@@ -0,0 +1,82 @@
+package com.ioteste.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateJournalTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Al reabrir se recupera el último estado de cada switch y habitación,
+     * también después de compactar varios segmentos.
+     */
+    @Test
+    void testReplayAfterCompaction() throws IOException {
+        StateJournal journal = new StateJournal(dir, 4096, 1);
+        journal.open();
+        for (int i = 0; i < 500; i++) {
+            journal.switchState("http://host:port/switch/" + (i % 10), i % 2 == 0, 0.1 * i, i);
+            journal.reading("room" + (i % 5), 20f + i, i);
+        }
+        journal.close();
+
+        assertTrue(journal.getSegmentSeq() > 2, "Los segmentos llenos se rotan.");
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.filter(p -> p.toString().endsWith(".log")).count(), "Se conservan el actual y uno de auditoría.");
+        }
+
+        StateJournal recovered = new StateJournal(dir, 4096, 1);
+        recovered.open();
+        assertEquals(10, recovered.getSwitchStates().size());
+        StateJournal.SwitchEntry last = recovered.getSwitchStates().get("http://host:port/switch/9");
+        assertEquals(499, last.ts());
+        assertFalse(last.active());
+        assertEquals(49.9, last.measuredPower(), 0.001);
+        assertEquals(519f, recovered.getReadings().get("room4").temperature(), 0.001f);
+        recovered.close();
+    }
+
+    /**
+     * Un registro a medio escribir al final se descarta sin perder los anteriores.
+     */
+    @Test
+    void testTornTailIsIgnored() throws IOException {
+        StateJournal journal = new StateJournal(dir, 4096, 1);
+        journal.open();
+        journal.switchState("http://host:port/switch/1", true, Double.NaN, 1);
+        journal.switchState("http://host:port/switch/2", true, Double.NaN, 2);
+        journal.close();
+
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(p -> p.toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long second = 8 + 1 + 8 + 2 + "http://host:port/switch/1".length() + 9;
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), second + 20);
+        }
+
+        StateJournal recovered = new StateJournal(dir, 4096, 1);
+        recovered.open();
+        assertEquals(1, recovered.getSwitchStates().size());
+        recovered.switchState("http://host:port/switch/3", false, Double.NaN, 3);
+        recovered.close();
+
+        StateJournal again = new StateJournal(dir, 4096, 1);
+        again.open();
+        assertEquals(2, again.getSwitchStates().size(), "Lo escrito después del corte se recupera.");
+        again.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.ioteste.app;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchClientTest {
+
+    private MockWebServer server;
+    private SwitchClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        SwitchClient.Settings settings = new SwitchClient.Settings(Duration.ofSeconds(1), Duration.ofMillis(500),
+                HttpClient.Version.HTTP_1_1, 8, 2, 2, 60_000, 10, 80);
+        client = new SwitchClient(settings, new Metrics());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Tras dos fallos seguidos el circuito se abre y el siguiente pedido falla sin llegar al switch.
+     */
+    @Test
+    void testOpenCircuitFailsFast() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        String url = server.url("/switch/1").toString();
+
+        assertEquals(503, client.get(url).get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(503, client.get(url).get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitState(url));
+
+        CompletionException e = assertThrows(CompletionException.class, () -> client.get(url).join());
+        assertInstanceOf(SwitchClient.CircuitOpenException.class, e.getCause());
+        assertEquals(2, server.getRequestCount(), "El pedido rechazado no llega al switch.");
+        assertEquals(1, client.getOpenCircuitCount());
+    }
+
+    /**
+     * Un switch que no responde corta por timeout en lugar de retener el pedido.
+     */
+    @Test
+    void testRequestTimeout() {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}").setHeadersDelay(2, TimeUnit.SECONDS));
+        String url = server.url("/switch/2").toString();
+
+        long start = System.nanoTime();
+        assertThrows(CompletionException.class, () -> client.get(url).join());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    /**
+     * Los pedidos que esperan a un host lento no retienen permisos globales,
+     * así que otro host sigue respondiendo.
+     */
+    @Test
+    void testSlowHostDoesNotHoldGlobalPermits() throws Exception {
+        SwitchClient limited = new SwitchClient(new SwitchClient.Settings(Duration.ofSeconds(1), Duration.ofSeconds(5),
+                HttpClient.Version.HTTP_1_1, 3, 2, 2, 60_000, 10, 80), new Metrics());
+        MockWebServer fast = new MockWebServer();
+        fast.start();
+        try {
+            for (int i = 0; i < 4; i++) {
+                server.enqueue(new MockResponse().setResponseCode(200).setHeadersDelay(2, TimeUnit.SECONDS));
+            }
+            fast.enqueue(new MockResponse().setResponseCode(200));
+            for (int i = 0; i < 4; i++) {
+                limited.get(server.url("/switch/" + i).toString());
+            }
+
+            long start = System.nanoTime();
+            assertEquals(200, limited.get(fast.url("/switch/9").toString()).get(5, TimeUnit.SECONDS).statusCode());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "No espera al host lento.");
+        } finally {
+            fast.shutdown();
+        }
+    }
+
+    /**
+     * El backoff crece exponencialmente con jitter y respeta el máximo.
+     */
+    @Test
+    void testBackoffBounds() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(client.backoffDelay(1) <= 10);
+            assertTrue(client.backoffDelay(3) <= 40);
+            assertTrue(client.backoffDelay(10) <= 80);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.Operation;
+import com.ioteste.control.Room;
+
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchCommandDispatcherTest {
+
+    private MockWebServer server;
+    private List<Operation> acked;
+    private SwitchCommandDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        acked = new CopyOnWriteArrayList<>();
+        SwitchClient.Settings d = SwitchClient.Settings.defaults();
+        SwitchClient client = new SwitchClient(HttpClient.newHttpClient(), new SwitchClient.Settings(d.connectTimeout(),
+                d.requestTimeout(), d.version(), 4, 4, d.breakerThreshold(), d.breakerOpenMs(), 10, 80), new Metrics());
+        dispatcher = new SwitchCommandDispatcher(client, 3, acked::add, () -> null, new Metrics());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Solo se confirma el estado de los switches que respondieron 200 con cuerpo.
+     */
+    @Test
+    void testAckOnlyOnValidResponse() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{\"was_on\": false}"));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        String url = server.url("/switch/1").toString();
+        assertTrue(dispatcher.dispatch(new Operation(url, true)).get(5, TimeUnit.SECONDS));
+        assertFalse(dispatcher.dispatch(new Operation(url, false)).get(5, TimeUnit.SECONDS));
+
+        assertEquals(1, acked.size());
+        assertTrue(acked.get(0).getPower());
+    }
+
+    /**
+     * Los comandos a un mismo switch llegan en el orden en que se despacharon.
+     */
+    @Test
+    void testPerSwitchOrdering() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody("{}").setBodyDelay(50 - i * 20, TimeUnit.MILLISECONDS));
+        }
+        String url = server.url("/switch/1").toString();
+
+        dispatcher.dispatchAll(List.of(new Operation(url, true), new Operation(url, false), new Operation(url, true)))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals("{\"state\": true}", server.takeRequest().getBody().readUtf8());
+        assertEquals("{\"state\": false}", server.takeRequest().getBody().readUtf8());
+        assertEquals("{\"state\": true}", server.takeRequest().getBody().readUtf8());
+        assertEquals(3, acked.size());
+    }
+
+    /**
+     * Un error de red se reintenta sin bloquear a quien despacha el comando.
+     */
+    @Test
+    void testRetryAfterNetworkFailure() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        String url = server.url("/switch/2").toString();
+        assertTrue(dispatcher.dispatch(new Operation(url, false)).get(5, TimeUnit.SECONDS));
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, acked.size());
+    }
+
+    /**
+     * Mientras el encendido está en vuelo su energía ya cuenta como carga
+     * activa; al confirmarse o fallar deja de estar reservado.
+     */
+    @Test
+    void testTurnOnIsReservedUntilSettled() throws Exception {
+        String on = server.url("/switch/1").toString();
+        String failing = server.url("/switch/2").toString();
+        SwitchStateStore store = new SwitchStateStore(new DataSite(10f, List.of(
+                new Room("office1", 20f, 2f, on, "topic1"), new Room("office2", 20f, 3f, failing, "topic2"))).getIndex());
+        SwitchCommandDispatcher reserving = new SwitchCommandDispatcher(
+                new SwitchClient(HttpClient.newHttpClient(), SwitchClient.Settings.defaults(), new Metrics()), 1,
+                op -> store.setActive(op.getSwitchURL(), op.getPower()), () -> store, new Metrics());
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}").setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+        var result = reserving.dispatch(new Operation(on, true));
+        assertTrue(store.snapshot().isReserved(0));
+        assertEquals(2.0, store.snapshot().getActiveLoad(), 0.001, "El encendido en vuelo ya cuenta.");
+        assertTrue(result.get(5, TimeUnit.SECONDS));
+        assertFalse(store.snapshot().isReserved(0));
+        assertEquals(2.0, store.snapshot().getActiveLoad(), 0.001);
+
+        server.enqueue(new MockResponse().setResponseCode(500));
+        assertFalse(reserving.dispatch(new Operation(failing, true)).get(5, TimeUnit.SECONDS));
+        assertFalse(store.snapshot().isReserved(1));
+        assertEquals(2.0, store.snapshot().getActiveLoad(), 0.001, "Un encendido fallido libera su reserva.");
+    }
+}
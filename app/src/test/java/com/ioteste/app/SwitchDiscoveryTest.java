@@ -0,0 +1,84 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.DataSwitch;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchDiscoveryTest {
+
+    private MockWebServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = new MockResponse().setResponseCode(200).setBody("{\"output\": true}");
+                if (request.getPath().endsWith("/slow")) {
+                    response.setHeadersDelay(2000, TimeUnit.MILLISECONDS);
+                }
+                return response;
+            }
+        });
+        server.start();
+        System.setProperty("startup.discovery.deadline", "500");
+        System.setProperty("metrics.enabled", "false");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        System.clearProperty("startup.discovery.deadline");
+        System.clearProperty("metrics.enabled");
+        server.shutdown();
+    }
+
+    /**
+     * El arranque no espera al switch lento: queda desconocido y se concilia
+     * cuando llega su respuesta.
+     */
+    @Test
+    void testSlowSwitchIsReconciledInBackground() throws Exception {
+        String fast = server.url("/switch/fast").toString();
+        String slow = server.url("/switch/slow").toString();
+        DataSite site = new DataSite("""
+                {
+                    "maxEnergy": "10 kWh",
+                    "rooms": [
+                        { "name": "a", "expectedTemp": "22", "energy": "1 kWh", "switch": "%s", "sensor": "mqtt:sensor/a" },
+                        { "name": "b", "expectedTemp": "22", "energy": "1 kWh", "switch": "%s", "sensor": "mqtt:sensor/b" }
+                    ]
+                }
+                """.formatted(fast, slow));
+        App app = new App();
+        app.initialize(site, List.of());
+
+        long start = System.currentTimeMillis();
+        List<DataSwitch> discovered = app.getInitialSwitchesStatus();
+        assertTrue(System.currentTimeMillis() - start < 1500, "El descubrimiento respeta el plazo global.");
+        assertEquals(1, discovered.size());
+        assertEquals(fast, discovered.get(0).getSwitchURL());
+
+        app.initialize(site, discovered);
+        assertEquals(1, app.getUnknownSwitchCount());
+        app.reconcilePendingDiscovery();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (app.getUnknownSwitchCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, app.getUnknownSwitchCount(), "La respuesta tardía se registra.");
+    }
+}
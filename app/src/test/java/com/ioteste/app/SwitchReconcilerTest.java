@@ -0,0 +1,115 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.DataSwitch;
+
+import com.ioteste.control.Room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchReconcilerTest {
+
+    private static final String S1 = "http://host:port/switch/1";
+    private static final String S2 = "http://host:port/switch/2";
+
+    private SwitchStateStore store;
+    private final Map<String, CompletableFuture<DataSwitch>> answers = new ConcurrentHashMap<>();
+    private final List<DataSwitch> changes = new ArrayList<>();
+    private SwitchReconciler reconciler;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DataSite site = new DataSite("""
+                {
+                    "maxEnergy": "10 kWh",
+                    "rooms": [
+                        { "name": "a", "expectedTemp": "22", "energy": "2 kWh", "switch": "%s", "sensor": "mqtt:sensor/a" },
+                        { "name": "b", "expectedTemp": "22", "energy": "2 kWh", "switch": "%s", "sensor": "mqtt:sensor/b" }
+                    ]
+                }
+                """.formatted(S1, S2));
+        store = new SwitchStateStore(site.getIndex(), List.of(new DataSwitch(S1, false), new DataSwitch(S2, false)));
+        reconciler = new SwitchReconciler(() -> store, url -> answers.computeIfAbsent(url, u -> new CompletableFuture<>()),
+                changes::add, new Metrics(), 100, 800, 1000, 10);
+        reconciler.track(List.of(S1, S2));
+    }
+
+    /**
+     * Un switch encendido a mano se registra y se vuelve a sondear al mínimo;
+     * el que coincide se sondea cada vez menos.
+     */
+    @Test
+    void testDriftIsAppliedAndStableSwitchBacksOff() {
+        reconciler.poll(S1);
+        reconciler.poll(S2);
+        answers.remove(S1).complete(new DataSwitch(S1, true, 1.5));
+        answers.remove(S2).complete(new DataSwitch(S2, false));
+
+        assertTrue(store.snapshot().isActive(0), "La deriva se aplica al store.");
+        assertEquals(1.5, store.snapshot().getActiveLoad(), 0.001);
+        assertEquals(100, reconciler.getInterval(S1));
+        assertEquals(200, reconciler.getInterval(S2));
+        assertEquals(1, reconciler.getUnstableCount());
+        assertEquals(List.of(S1), changes.stream().map(DataSwitch::getSwitchURL).toList(), "Solo se informa lo que cambió.");
+    }
+
+    /**
+     * Una respuesta que llega después de un comando confirmado no lo deshace.
+     */
+    @Test
+    void testAnswerDoesNotOverrideNewerCommand() {
+        reconciler.poll(S1);
+        store.setActive(S1, true);
+        answers.remove(S1).complete(new DataSwitch(S1, false));
+
+        assertTrue(store.snapshot().isActive(0), "Gana el comando confirmado.");
+        assertTrue(changes.isEmpty());
+    }
+
+    /**
+     * Con más switches vencidos que lugares por tick, el limitador los reparte
+     * en el tiempo pero todos se sondean.
+     */
+    @Test
+    void testRateLimitedBacklogIsPolled() throws Exception {
+        List<Room> rooms = new ArrayList<>();
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String url = "http://host:port/switch/" + i;
+            rooms.add(new Room("room" + i, 22f, 1f, url, "sensor/" + i));
+            urls.add(url);
+        }
+        SwitchStateStore fleet = new SwitchStateStore(new DataSite(100f, rooms).getIndex());
+        Map<String, Long> firstPoll = new ConcurrentHashMap<>();
+        SwitchReconciler limited = new SwitchReconciler(() -> fleet, url -> {
+            firstPoll.putIfAbsent(url, System.nanoTime());
+            return CompletableFuture.completedFuture(new DataSwitch(url, false));
+        }, status -> { }, new Metrics(), 200, 100_000, 100, 250);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            limited.start(urls, scheduler);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (firstPoll.size() < urls.size() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        } finally {
+            limited.stop();
+            scheduler.shutdownNow();
+        }
+        assertEquals(urls.size(), firstPoll.size(), "Todos los switches se sondean.");
+        long first = firstPoll.values().stream().mapToLong(Long::longValue).min().orElseThrow();
+        long last = firstPoll.values().stream().mapToLong(Long::longValue).max().orElseThrow();
+        assertTrue(last - first >= 800_000_000L, "100 sondeos a 100/s no pueden salir en menos de ~1s.");
+    }
+}
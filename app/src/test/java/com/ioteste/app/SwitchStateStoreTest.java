@@ -0,0 +1,74 @@
+package com.ioteste.app;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.Room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchStateStoreTest {
+
+    private static DataSite site(int rooms) {
+        List<Room> list = new ArrayList<>();
+        for (int i = 0; i < rooms; i++) {
+            list.add(new Room("room" + i, 20f, 2f, "http://host/switch/" + i, "topic" + i));
+        }
+        return new DataSite(5f, list);
+    }
+
+    /**
+     * Varios workers que encienden a la vez con el mismo snapshot nunca se
+     * reparten más que el presupuesto.
+     */
+    @Test
+    void testParallelReservesStayWithinBudget() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            SwitchStateStore store = new SwitchStateStore(site(8).getIndex());
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger reserved = new AtomicInteger();
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String switchURL = "http://host/switch/" + i;
+                workers.add(Thread.ofVirtual().start(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (store.tryReserve(switchURL, 5f, List.of())) {
+                        reserved.incrementAndGet();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(2, reserved.get());
+            assertEquals(4.0, store.snapshot().getActiveLoad(), 0.001);
+        }
+    }
+
+    /**
+     * Lo que el mismo ciclo apaga cuenta como libre, y un switch ya encendido
+     * no se vuelve a contar.
+     */
+    @Test
+    void testTurnOffsOfTheCycleAreCredited() {
+        SwitchStateStore store = new SwitchStateStore(site(3).getIndex());
+        store.setActive("http://host/switch/0", true);
+        store.setActive("http://host/switch/1", true);
+        assertFalse(store.tryReserve("http://host/switch/2", 5f, List.of()));
+        assertTrue(store.tryReserve("http://host/switch/2", 5f, List.of("http://host/switch/0")));
+        assertTrue(store.snapshot().isReserved(2));
+        assertTrue(store.tryReserve("http://host/switch/0", 0f, List.of()), "Ya estaba encendido.");
+        assertTrue(store.release("http://host/switch/2"));
+        assertEquals(4.0, store.snapshot().getActiveLoad(), 0.001);
+    }
+}
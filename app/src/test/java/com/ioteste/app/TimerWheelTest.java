@@ -0,0 +1,72 @@
+package com.ioteste.app;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimerWheelTest {
+
+    /**
+     * Una habitación vence una sola vez al pasar su deadline y se rearma con el próximo heartbeat.
+     */
+    @Test
+    void testExpiresOnceAndRearms() {
+        List<String> expired = new CopyOnWriteArrayList<>();
+        TimerWheel<String> wheel = new TimerWheel<>(100, 16, expired::add);
+        long now = System.currentTimeMillis();
+
+        wheel.touch("Living", 10_000);
+        assertEquals(0, wheel.advance(now + 5_000));
+        assertEquals(1, wheel.advance(now + 11_000));
+        assertEquals(0, wheel.advance(now + 30_000), "No vuelve a vencer sin un heartbeat nuevo.");
+        assertEquals(List.of("Living"), expired);
+
+        wheel.touch("Living", 10_000);
+        assertEquals(1, wheel.advance(now + 41_000));
+    }
+
+    /**
+     * Un listener que no hizo nada puede rearmar la clave mientras vence.
+     */
+    @Test
+    void testListenerRearms() {
+        List<String> expired = new CopyOnWriteArrayList<>();
+        AtomicReference<TimerWheel<String>> wheel = new AtomicReference<>();
+        wheel.set(new TimerWheel<>(100, 16, key -> {
+            expired.add(key);
+            wheel.get().touch(key, 10_000);
+        }));
+        long now = System.currentTimeMillis();
+
+        wheel.get().touch("Living", 10_000);
+        assertEquals(1, wheel.get().advance(now + 11_000));
+        assertEquals(1, wheel.get().advance(now + 30_000), "Vuelve a vencer sin un heartbeat nuevo.");
+        assertEquals(List.of("Living", "Living"), expired);
+    }
+
+    /**
+     * Cada heartbeat corre el deadline; los timeouts son por clave.
+     */
+    @Test
+    void testHeartbeatPushesDeadline() {
+        List<String> expired = new CopyOnWriteArrayList<>();
+        TimerWheel<String> wheel = new TimerWheel<>(100, 16, expired::add);
+        long now = System.currentTimeMillis();
+
+        wheel.touch("Living", 2_000);
+        wheel.touch("Office", 8_000);
+        wheel.advance(now + 1_000);
+        wheel.touch("Living", 20_000);
+
+        wheel.advance(now + 9_000);
+        assertEquals(List.of("Office"), expired, "Living recibió un heartbeat y no vence.");
+
+        wheel.remove("Living");
+        wheel.advance(now + 60_000);
+        assertEquals(List.of("Office"), expired, "Una clave quitada no vence.");
+    }
+}
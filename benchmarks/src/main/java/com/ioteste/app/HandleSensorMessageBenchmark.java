@@ -0,0 +1,119 @@
+package com.ioteste.app;
+
+import com.ioteste.benchmarks.SiteFixtures;
+import com.ioteste.control.DataSite;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole App.handleSensorMessage path: payload decoding, topic to room
+ * mapping, control decision and command dispatch. MQTT is stubbed by calling
+ * the handler directly, and the switches by a local HTTP server that ACKs
+ * every command. Lives in the app package to reach App's package-private setup.
+ * <p>
+ * With warm readings the controller emits no operation; with cold readings
+ * half of the rooms stay over budget and keep receiving commands.
+ * <p>
+ * With {@code path=direct} the control cycle runs on the calling thread; with
+ * {@code path=queue} readings go through the {@link SensorIngestQueue} as in
+ * production, so the score is what the MQTT delivery thread pays per message.
+ * The config the path reads is pinned as system properties in {@link #setup()},
+ * so the journal, cluster and metrics server stay off; environment variables
+ * still win over them, as everywhere in {@link AppConfig}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleSensorMessageBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int rooms;
+
+    @Param({"25.0", "15.0"})
+    public float temperature;
+
+    @Param({"direct", "queue"})
+    public String path;
+
+    private HttpServer switchServer;
+    private App app;
+    private String[] topics;
+    private byte[][] payloads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        System.setProperty("journal.enabled", "false");
+        System.setProperty("cluster.enabled", "false");
+        System.setProperty("metrics.enabled", "false");
+        System.setProperty("controller.predictive", "false");
+        System.setProperty("mqtt.durable", "false");
+        System.setProperty("mqtt.qos", "1");
+        System.setProperty("ingest.partitions", "4");
+        System.setProperty("ingest.capacity", "1024");
+        System.setProperty("ingest.policy", "COALESCE_LATEST");
+        System.setProperty("ingest.batch", "64");
+
+        switchServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        switchServer.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] ack = "{\"was_on\":false}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, ack.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(ack);
+            }
+        });
+        switchServer.setExecutor(Executors.newFixedThreadPool(4));
+        switchServer.start();
+
+        String host = "http://127.0.0.1:" + switchServer.getAddress().getPort();
+        DataSite site = SiteFixtures.site(rooms, host);
+        app = new App();
+        app.initialize(site, SiteFixtures.switches(rooms, host));
+        if (path.equals("queue")) {
+            app.startIngestQueue();
+        }
+
+        topics = new String[rooms];
+        payloads = new byte[rooms][];
+        for (int i = 0; i < rooms; i++) {
+            topics[i] = "sensors/sw" + i;
+            payloads[i] = SiteFixtures.sensorJson("shelly-" + i, temperature).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+        switchServer.stop(0);
+    }
+
+    @Benchmark
+    public void handleSensorMessage() {
+        int i = next;
+        next = (i + 1) % rooms;
+        app.handleSensorMessage(topics[i], payloads[i]);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ioteste.benchmarks;
+
+import com.ioteste.control.AppBatchData;
+import com.ioteste.control.AppData;
+import com.ioteste.control.Context;
+import com.ioteste.control.ControlResponse;
+import com.ioteste.control.DataSensor;
+import com.ioteste.control.DataSite;
+import com.ioteste.control.DataSwitch;
+import com.ioteste.control.DefaultController;
+import com.ioteste.control.SwitchSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DefaultController.powerManagement for one cold room, against either a plain
+ * switch list or a SwitchSnapshot, plus the batch entry point over 64 rooms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int rooms;
+
+    private DefaultController controller;
+    private AppData listData;
+    private AppData snapshotData;
+    private AppBatchData batchData;
+
+    @Setup
+    public void setup() throws Exception {
+        String host = "http://switch-host";
+        DataSite site = SiteFixtures.site(rooms, host);
+        List<DataSwitch> switches = SiteFixtures.switches(rooms, host);
+        SwitchSnapshot snapshot = SwitchSnapshot.of(site.getIndex(), switches);
+        Context context = new Context(SiteFixtures.OFF_PEAK);
+
+        DataSensor reading = new DataSensor(SiteFixtures.sensorJson(SiteFixtures.roomName(rooms - 1), 18.0f));
+        controller = new DefaultController();
+        listData = new AppData(site, reading, switches, context);
+        snapshotData = new AppData(site, reading, snapshot, context);
+
+        List<DataSensor> readings = new ArrayList<>();
+        for (int i = 0; i < Math.min(64, rooms); i++) {
+            readings.add(new DataSensor(SiteFixtures.sensorJson(SiteFixtures.roomName(i), 15.0f + i % 8)));
+        }
+        batchData = new AppBatchData(site, readings, snapshot, context);
+    }
+
+    @Benchmark
+    public ControlResponse powerManagementList() {
+        return controller.powerManagement(listData);
+    }
+
+    @Benchmark
+    public ControlResponse powerManagementSnapshot() {
+        return controller.powerManagement(snapshotData);
+    }
+
+    @Benchmark
+    public ControlResponse powerManagementBatch() {
+        return controller.powerManagementBatch(batchData);
+    }
+}
@@ -0,0 +1,39 @@
+package com.ioteste.benchmarks;
+
+import com.ioteste.control.DataSensor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataSensorBenchmark {
+
+    private final String payload = SiteFixtures.sensorJson("shellyhtg3-84fce63ad204", 19.9f);
+    private final byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public DataSensor parseString() throws JsonProcessingException {
+        return new DataSensor(payload);
+    }
+
+    @Benchmark
+    public DataSensor parseBytes() throws JsonProcessingException {
+        return new DataSensor(payloadBytes);
+    }
+}
@@ -0,0 +1,43 @@
+package com.ioteste.benchmarks;
+
+import com.ioteste.control.DataSite;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataSiteBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int rooms;
+
+    private String siteJson;
+
+    @Setup
+    public void setup() {
+        siteJson = SiteFixtures.siteJson(rooms, "http://switch-host");
+    }
+
+    /** Includes building the SiteIndex. */
+    @Benchmark
+    public DataSite parseSite() throws JsonProcessingException {
+        return new DataSite(siteJson);
+    }
+}
@@ -0,0 +1,40 @@
+package com.ioteste.benchmarks;
+
+import com.ioteste.control.EnergyCost;
+import com.ioteste.control.TariffEngine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnergyCostBenchmark {
+
+    private long ts = System.currentTimeMillis();
+    private final TariffEngine.CachedZone cached = TariffEngine.getDefault().cached(EnergyCost.TEST_CONTRACT_30S);
+
+    @Benchmark
+    public EnergyCost.EnergyZone energyZone() {
+        ts += 997;
+        return EnergyCost.energyZone(EnergyCost.TEST_CONTRACT_30S, ts);
+    }
+
+    @Benchmark
+    public EnergyCost.EnergyZone cachedZone() {
+        ts += 997;
+        return cached.zoneAt(ts);
+    }
+}
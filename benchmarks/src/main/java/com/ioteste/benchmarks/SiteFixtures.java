@@ -0,0 +1,72 @@
+package com.ioteste.benchmarks;
+
+import com.ioteste.control.DataSite;
+import com.ioteste.control.DataSwitch;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic sites and sensor payloads shared by the benchmarks.
+ */
+public final class SiteFixtures {
+
+    /** Epoch start falls in the low tariff zone of the test contract. */
+    public static final LocalDateTime OFF_PEAK = LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC);
+
+    private SiteFixtures() {
+    }
+
+    public static String roomName(int i) {
+        return "room-" + i;
+    }
+
+    public static String switchURL(String host, int i) {
+        return host + "/switch/sw" + i;
+    }
+
+    public static String siteJson(int rooms, String switchHost) {
+        StringBuilder json = new StringBuilder(rooms * 160 + 64);
+        json.append("{\"site\":\"bench\",\"maxEnergy\":\"").append(rooms).append(" kWh\",\"rooms\":[");
+        for (int i = 0; i < rooms; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"").append(roomName(i))
+                    .append("\",\"expectedTemp\":\"21\",\"energy\":\"2 kWh\",\"switch\":\"")
+                    .append(switchURL(switchHost, i))
+                    .append("\",\"sensor\":\"mqtt:sensors\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    public static DataSite site(int rooms, String switchHost) {
+        try {
+            return new DataSite(siteJson(rooms, switchHost));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Every other switch on, so the budget check has real work to do.
+     */
+    public static List<DataSwitch> switches(int rooms, String switchHost) {
+        List<DataSwitch> switches = new ArrayList<>(rooms);
+        for (int i = 0; i < rooms; i++) {
+            switches.add(new DataSwitch(switchURL(switchHost, i), i % 2 == 0));
+        }
+        return switches;
+    }
+
+    public static String sensorJson(String src, float temperature) {
+        return "{\"src\":\"" + src + "\",\"dst\":\"ht-suite/events\",\"method\":\"NotifyFullStatus\","
+                + "\"ts\":1735694700.0,\"params\":{\"ts\":1735694700.0,"
+                + "\"devicepower:0\":{\"id\":0,\"battery\":{\"V\":6.1,\"percent\":100},\"external\":{\"present\":false}},"
+                + "\"humidity:0\":{\"id\":0,\"rh\":58.9},"
+                + "\"temperature:0\":{\"id\":0,\"tC\":" + temperature + ",\"tF\":67.82}}}";
+    }
+}
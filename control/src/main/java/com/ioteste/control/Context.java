@@ -1,16 +1,41 @@
 // context.java
 package com.ioteste.control;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 public class Context {
     private LocalDateTime currentTime;
+    private long timestamp = Long.MIN_VALUE;
 
+    /**
+     * @param currentTime wall-clock time in UTC.
+     */
     public Context(LocalDateTime currentTime) {
         this.currentTime = currentTime;
     }
 
+    /**
+     * @param timestamp epoch millis, e.g. {@link System#currentTimeMillis()},
+     * so the time does not depend on the zone of the host.
+     */
+    public Context(long timestamp) {
+        this.timestamp = timestamp;
+        this.currentTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneOffset.UTC);
+    }
+
     public LocalDateTime getCurrentTime() {
         return currentTime;
     }
+
+    /**
+     * currentTime as epoch millis (read as UTC), converted once per context.
+     */
+    public long getTimestamp() {
+        if (timestamp == Long.MIN_VALUE) {
+            timestamp = currentTime.atZone(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+        return timestamp;
+    }
 }
\ No newline at end of file
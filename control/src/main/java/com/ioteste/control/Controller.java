@@ -1,6 +1,50 @@
 // controller.java
 package com.ioteste.control;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public interface Controller {
     public ControlResponse powerManagement(AppData appData);
-}
\ No newline at end of file
+
+    /**
+     * Evaluates readings of several rooms against one switch snapshot and returns
+     * a single response with at most one operation per switch.
+     * <p>
+     * The default implementation runs {@link #powerManagement(AppData)} for each
+     * reading in order, applying every decision to a working copy of the switch
+     * states so later readings see the earlier ones.
+     */
+    public default ControlResponse powerManagementBatch(AppBatchData batchData) {
+        List<DataSwitch> working = new ArrayList<>(batchData.getSwitchStatus().size());
+        for (DataSwitch ds : batchData.getSwitchStatus()) {
+            working.add(new DataSwitch(ds.getSwitchURL(), ds.isActive()));
+        }
+
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        for (DataSensor sensorData : batchData.getSensorData()) {
+            AppData appData = new AppData(batchData.getSiteConfig(), sensorData, working, batchData.getContext());
+            for (Operation op : powerManagement(appData).getOperations()) {
+                operations.remove(op.getSwitchURL());
+                operations.put(op.getSwitchURL(), op);
+                for (DataSwitch ds : working) {
+                    if (ds.getSwitchURL().equals(op.getSwitchURL())) {
+                        ds.setActive(op.getPower());
+                        break;
+                    }
+                }
+            }
+        }
+        return new ControlResponse(new ArrayList<>(operations.values()), batchData.getContext());
+    }
+
+    /**
+     * Called once a switch acknowledged an operation this controller returned.
+     *
+     * @param timestamp epoch millis of the acknowledgement.
+     */
+    public default void acknowledged(Operation op, long timestamp) {
+    }
+}
@@ -1,8 +1,11 @@
 package com.ioteste.control;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -14,35 +17,111 @@ public class DataSensor {
 
     private static final Logger logger = LoggerFactory.getLogger(DataSensor.class);
 
+    // JsonFactory is thread-safe once configured, so every payload shares it.
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final long MISSING_TS = Long.MIN_VALUE;
+
     private String room;
     private float temperature;
     private float humidity;
     private LocalDateTime dateTime;
 
     public DataSensor(String sensorJson) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode root = mapper.readTree(sensorJson);
+        try (JsonParser parser = JSON_FACTORY.createParser(sensorJson)) {
+            decode(parser);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonParseException(null, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes a sensor payload straight from the bytes received over MQTT.
+     */
+    public DataSensor(byte[] sensorJson) throws JsonProcessingException {
+        try (JsonParser parser = JSON_FACTORY.createParser(sensorJson)) {
+            decode(parser);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonParseException(null, e.getMessage(), e);
+        }
+    }
 
-        this.room = root.path("src").asText("unknown-room"); 
+    /**
+     * Streams the payload and keeps only src, ts, params.ts,
+     * params.temperature:0.tC and params.humidity:0.rh. Missing or
+     * non-numeric values fall back to the same defaults as before.
+     */
+    private void decode(JsonParser parser) throws IOException {
+        String src = null;
+        double temperature = 0.0;
+        double humidity = 0.0;
+        long epochSeconds = 0L;
+        long paramsEpochSeconds = MISSING_TS;
 
-        JsonNode params = root.path("params");
-        this.temperature = (float) params.path("temperature:0").path("tC").asDouble(0.0);
+        if (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "src" -> src = parser.getValueAsString(null);
+                    case "ts" -> epochSeconds = parser.getValueAsLong(0L);
+                    case "params" -> {
+                        if (value != JsonToken.START_OBJECT) {
+                            break;
+                        }
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String param = parser.currentName();
+                            JsonToken paramValue = parser.nextToken();
+                            switch (param) {
+                                case "ts" -> paramsEpochSeconds = parser.getValueAsLong(MISSING_TS);
+                                case "temperature:0" -> temperature = readNestedDouble(parser, paramValue, "tC");
+                                case "humidity:0" -> humidity = readNestedDouble(parser, paramValue, "rh");
+                                default -> { }
+                            }
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> { }
+                }
+                parser.skipChildren();
+            }
+        }
 
-        this.humidity = (float) params.path("humidity:0").path("rh").asDouble(0.0);
+        this.room = src != null ? src : "unknown-room";
+        this.temperature = (float) temperature;
+        this.humidity = (float) humidity;
 
-        long epochSeconds = root.path("ts").asLong(0L);
         if (epochSeconds == 0L) {
-             epochSeconds = params.path("ts").asLong(Instant.now().getEpochSecond());
+            epochSeconds = paramsEpochSeconds != MISSING_TS ? paramsEpochSeconds : Instant.now().getEpochSecond();
         }
-        
+
         if (epochSeconds != 0L) {
             this.dateTime = LocalDateTime.ofInstant(
-                Instant.ofEpochSecond(epochSeconds), 
+                Instant.ofEpochSecond(epochSeconds),
                 ZoneOffset.UTC
             );
         } else {
-            this.dateTime = LocalDateTime.now(ZoneOffset.UTC); 
+            this.dateTime = LocalDateTime.now(ZoneOffset.UTC);
+        }
+    }
+
+    private static double readNestedDouble(JsonParser parser, JsonToken token, String field) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            return 0.0;
+        }
+        double result = 0.0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (field.equals(name)) {
+                result = parser.getValueAsDouble(0.0);
+            }
+            parser.skipChildren();
         }
+        return result;
     }
 
     public String getRoom() { return room; }
@@ -16,6 +16,7 @@ public class DataSite {
 
     private float maxEnergy;
     private List<Room> rooms;
+    private SiteIndex index;
     
     
     public DataSite(String siteConfig) throws JsonProcessingException {
@@ -79,16 +80,65 @@ public class DataSite {
                 
                 String sensor = nodoRoom.get("sensor").asText();
 
-                roomList.add(new Room(name, expectedTemp, energy, switchURL, sensor));
+                Room room = new Room(name, expectedTemp, energy, switchURL, sensor);
+                JsonNode timeoutNode = nodoRoom.get("sensorTimeout");
+                if (timeoutNode != null && !timeoutNode.isNull()) {
+                    try {
+                        room.setSensorTimeoutMs(parseTimeoutMs(timeoutNode.asText()));
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("Error al parsear sensorTimeout para la habitación '{}': {}. Usando el valor por defecto", name, e.getMessage());
+                    }
+                }
+                roomList.add(room);
             }
         }
         this.rooms = roomList;
+        this.index = new SiteIndex(roomList);
+    }
+
+
+    /**
+     * Sitio con las habitaciones dadas, por ejemplo la parte de otro sitio
+     * que atiende una instancia.
+     */
+    public DataSite(float maxEnergy, List<Room> rooms) {
+        this.maxEnergy = maxEnergy;
+        this.rooms = rooms;
+        this.index = new SiteIndex(rooms);
+    }
+
+    /**
+     * Lee un timeout en milisegundos; acepta "8000", "8000 ms" o "8 s".
+     *
+     * @throws IllegalArgumentException si el número no se puede leer o la unidad no es ms ni s.
+     */
+    static long parseTimeoutMs(String strTimeout) {
+        String value = strTimeout.trim();
+        String unit = "ms";
+        int space = value.indexOf(' ');
+        if (space != -1) {
+            unit = value.substring(space + 1).trim();
+            value = value.substring(0, space);
+        }
+        double amount;
+        try {
+            amount = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + strTimeout + "' no es un número");
+        }
+        return switch (unit) {
+            case "ms" -> (long) amount;
+            case "s" -> (long) (amount * 1000);
+            default -> throw new IllegalArgumentException("unidad desconocida en '" + strTimeout + "'");
+        };
     }
-    
-    
 
     public float getMaxEnergy() { return maxEnergy; }
     public List<Room> getRooms() { return rooms; }
+    public SiteIndex getIndex() { return index; }
     public void setMaxEnergy(float maxEnergy) { this.maxEnergy = maxEnergy; }
-    public void setRooms(List<Room> rooms) { this.rooms = rooms; }
+    public void setRooms(List<Room> rooms) {
+        this.rooms = rooms;
+        this.index = new SiteIndex(rooms);
+    }
 }
\ No newline at end of file
@@ -3,12 +3,23 @@ package com.ioteste.control;
 public class DataSwitch {
     private String switchURL;
     private boolean active;
-    
+    private double measuredPower = Double.NaN;
+
     public DataSwitch(String switchURL, boolean active) {
         this.switchURL = switchURL;
         this.active = active;
     }
 
+    /**
+     * @param measuredPower load reported by the switch, in the same unit as
+     * the room energies, or NaN if it did not report one.
+     */
+    public DataSwitch(String switchURL, boolean active, double measuredPower) {
+        this.switchURL = switchURL;
+        this.active = active;
+        this.measuredPower = measuredPower;
+    }
+
     public String getSwitchURL() {
         return switchURL;
     }
@@ -20,4 +31,12 @@ public class DataSwitch {
     public void setActive(boolean active) {
         this.active = active;
     }
-}
\ No newline at end of file
+
+    public double getMeasuredPower() {
+        return measuredPower;
+    }
+
+    public boolean hasMeasuredPower() {
+        return !Double.isNaN(measuredPower);
+    }
+}
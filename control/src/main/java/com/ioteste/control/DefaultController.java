@@ -1,33 +1,121 @@
 package com.ioteste.control;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DefaultController implements Controller {
 
-    private boolean isPeakHours(LocalDateTime currentTime) {
-        long ts = currentTime.atZone(ZoneOffset.UTC).toInstant().toEpochMilli();
-        EnergyCost.EnergyZone zone = EnergyCost.energyZone(EnergyCost.TEST_CONTRACT_30S, ts);
-        return zone.current() == EnergyCost.HIGH;
+    private static final Logger logger = LoggerFactory.getLogger(DefaultController.class);
+
+    static final int ENERGY_CHECK_INTERVAL = 1000;
+    private static final double ENERGY_TOLERANCE = 1e-3;
+
+    private final AtomicLong energyChecks = new AtomicLong();
+
+    private final TariffEngine.CachedZone tariff;
+    private volatile EnergyBudget budget = EnergyBudget.SITE;
+
+    public DefaultController() {
+        this(EnergyCost.TEST_CONTRACT_30S);
     }
 
-    private float getCurrentEnergy(DataSite siteConfig, List<DataSwitch> switchStatus) {
-        float currentEnergy = 0;
-        
-        for (Room room : siteConfig.getRooms()) {
-            for (DataSwitch dSwitch : switchStatus) {
-                if (dSwitch.isActive() && dSwitch.getSwitchURL().equals(room.getSwitchURL())) {
-                    currentEnergy += room.getEnergy();
-                    break;
+    /**
+     * @param contract name of a contract registered in {@link TariffEngine#getDefault()}.
+     */
+    public DefaultController(String contract) {
+        this.tariff = TariffEngine.getDefault().cached(contract);
+    }
+
+    public void setEnergyBudget(EnergyBudget budget) {
+        this.budget = budget;
+    }
+
+    TariffEngine.CachedZone getTariff() {
+        return tariff;
+    }
+
+    private boolean isPeakHours(Context context) {
+        return tariff.isPeak(context.getTimestamp());
+    }
+
+    /**
+     * Peak hours: every switch that is on goes off, and so does every switch
+     * with a turn-on still in flight.
+     */
+    private ControlResponse peakShutdown(List<DataSwitch> switchStatus, Context context) {
+        List<Operation> operations = new ArrayList<>();
+        if (switchStatus instanceof SwitchSnapshot snapshot) {
+            for (int slot = 0; slot < snapshot.size(); slot++) {
+                if (snapshot.isActiveOrReserved(slot)) {
+                    operations.add(new Operation(snapshot.getIndex().getSwitchURLs().get(slot), false));
                 }
             }
+            return new ControlResponse(operations, context);
+        }
+        for (DataSwitch s : switchStatus) {
+            if (s.isActive()) {
+                operations.add(new Operation(s.getSwitchURL(), false));
+            }
+        }
+        return new ControlResponse(operations, context);
+    }
+
+    private float getCurrentEnergy(SiteIndex index, List<DataSwitch> switchStatus) {
+        float currentEnergy = 0;
+
+        if (switchStatus instanceof SwitchSnapshot snapshot && snapshot.getIndex() == index) {
+            return getSnapshotEnergy(snapshot);
+        }
+
+        for (DataSwitch dSwitch : switchStatus) {
+            if (!dSwitch.isActive()) {
+                continue;
+            }
+            int slot = index.getSlot(dSwitch.getSwitchURL());
+            if (slot >= 0) {
+                currentEnergy += index.getSwitchEnergy(slot);
+            }
         }
         return currentEnergy;
     }
 
+    /**
+     * Reads the running load kept by the snapshot, which uses the power
+     * measured by the switches where they reported it. Every
+     * {@link #ENERGY_CHECK_INTERVAL} calls it is compared with a full recompute,
+     * and the recomputed value wins if they disagree.
+     */
+    private float getSnapshotEnergy(SwitchSnapshot snapshot) {
+        double energy = snapshot.getActiveLoad();
+        if (energyChecks.incrementAndGet() % ENERGY_CHECK_INTERVAL == 0) {
+            double recomputed = snapshot.recomputeActiveLoad();
+            if (Math.abs(recomputed - energy) > ENERGY_TOLERANCE) {
+                logger.warn("Active energy drifted: running total {} but recomputed {} (snapshot v{}). Using recomputed value.",
+                        energy, recomputed, snapshot.getVersion());
+                energy = recomputed;
+            }
+        }
+        return (float) energy;
+    }
+
+    /**
+     * A switch with a turn-on in flight counts as on, so it is not turned on
+     * twice and can still be turned off.
+     */
     private boolean isActiveRoomSwitch(Room room, List<DataSwitch> switchStatus) {
+        if (switchStatus instanceof SwitchSnapshot snapshot) {
+            int slot = snapshot.getIndex().getSlot(room.getSwitchURL());
+            return slot >= 0 && snapshot.isActiveOrReserved(slot);
+        }
         for (DataSwitch dSwitch : switchStatus) {
             if (room.getSwitchURL().equals(dSwitch.getSwitchURL())) {
                 return dSwitch.isActive();
@@ -36,6 +124,32 @@ public class DefaultController implements Controller {
         return false;
     }
 
+    /**
+     * The state the room's switch should have after this reading: on below
+     * the expected temperature, off otherwise. Subclasses may return null to
+     * leave the switch as it is.
+     *
+     * @param isActiveSwitch whether the switch is on or has a turn-on in flight.
+     */
+    Boolean getDesiredPower(Room room, DataSensor sensorData, boolean isActiveSwitch, List<DataSwitch> switchStatus,
+            Context context) {
+        return sensorData.getTemperature() < room.getExpectedTemp();
+    }
+
+    /**
+     * What switching the room off releases: its measured load when the
+     * snapshot has one, its nominal energy otherwise.
+     */
+    private float getRoomLoad(SiteIndex index, Room room, List<DataSwitch> switchStatus) {
+        if (switchStatus instanceof SwitchSnapshot snapshot && snapshot.getIndex() == index) {
+            int slot = index.getSlot(room.getSwitchURL());
+            if (slot >= 0 && (snapshot.isActive(slot) || !snapshot.isReserved(slot))) {
+                return (float) snapshot.getLoad(slot);
+            }
+        }
+        return room.getEnergy();
+    }
+
     @Override
     public ControlResponse powerManagement(AppData appData) {
         DataSite siteConfig = appData.getSiteConfig();
@@ -45,40 +159,99 @@ public class DefaultController implements Controller {
         
         List<Operation> operations = new ArrayList<>();
         
-        if (isPeakHours(context.getCurrentTime())) {
-            for (DataSwitch s : switchStatus) {
-                if (s.isActive()) {
-                    operations.add(new Operation(s.getSwitchURL(), false));
-                }
-            }
-            return new ControlResponse(operations, context);
+        if (isPeakHours(context)) {
+            return peakShutdown(switchStatus, context);
         }
         
-        float currentEnergy = getCurrentEnergy(siteConfig, switchStatus);
-        
-        for (Room room : siteConfig.getRooms()) {
-            if (sensorData.getRoom().equals(room.getName())) {
-                
-                boolean isActiveSwitch = isActiveRoomSwitch(room, switchStatus);
-                boolean desiredPower = sensorData.getTemperature() < room.getExpectedTemp();
-                
-                if (desiredPower && !isActiveSwitch) {
-                    if (currentEnergy + room.getEnergy() <= siteConfig.getMaxEnergy()) {
-                        operations.add(new Operation(room.getSwitchURL(), true));
-                        
-                    } else {
-                        operations.add(new Operation(room.getSwitchURL(), false));
-                    }
-                    
-                }
-                else if (!desiredPower && isActiveSwitch) {
-                    operations.add(new Operation(room.getSwitchURL(), false));
-                    
-                }
-                
-                return new ControlResponse(operations, context);
+        SiteIndex index = siteConfig.getIndex();
+        Room room = index.getRoomByName(sensorData.getRoom());
+        if (room == null) {
+            return new ControlResponse(operations, context);
+        }
+
+        float currentEnergy = getCurrentEnergy(index, switchStatus);
+        float maxEnergy = budget.getMaxEnergy(siteConfig);
+        boolean isActiveSwitch = isActiveRoomSwitch(room, switchStatus);
+        Boolean desiredPower = getDesiredPower(room, sensorData, isActiveSwitch, switchStatus, context);
+
+        if (Boolean.TRUE.equals(desiredPower) && !isActiveSwitch) {
+            if (currentEnergy + room.getEnergy() <= maxEnergy) {
+                operations.add(new Operation(room.getSwitchURL(), true));
+
+            } else {
+                operations.add(new Operation(room.getSwitchURL(), false));
             }
+
+        }
+        else if (Boolean.FALSE.equals(desiredPower) && isActiveSwitch) {
+            operations.add(new Operation(room.getSwitchURL(), false));
+
         }
+
+        return new ControlResponse(operations, context);
+    }
+
+    /**
+     * Allocates the energy budget across every room of the batch in one pass.
+     * Rooms that no longer need heat are switched off first so their load is
+     * released; the rooms that need heat are then served from the coldest
+     * (largest gap to the expected temperature) to the warmest while the
+     * budget allows. Only the latest reading of each room is considered.
+     */
+    @Override
+    public ControlResponse powerManagementBatch(AppBatchData batchData) {
+        DataSite siteConfig = batchData.getSiteConfig();
+        List<DataSwitch> switchStatus = batchData.getSwitchStatus();
+        Context context = batchData.getContext();
+
+        List<Operation> operations = new ArrayList<>();
+
+        if (isPeakHours(context)) {
+            return peakShutdown(switchStatus, context);
+        }
+
+        SiteIndex index = siteConfig.getIndex();
+        Map<String, DataSensor> latestByRoom = new LinkedHashMap<>();
+        for (DataSensor sensorData : batchData.getSensorData()) {
+            if (index.getRoomByName(sensorData.getRoom()) != null) {
+                latestByRoom.put(sensorData.getRoom(), sensorData);
+            }
+        }
+
+        float currentEnergy = getCurrentEnergy(index, switchStatus);
+        float maxEnergy = budget.getMaxEnergy(siteConfig);
+        List<DataSensor> needHeat = new ArrayList<>();
+        Set<String> decidedSwitches = new HashSet<>();
+
+        for (DataSensor sensorData : latestByRoom.values()) {
+            Room room = index.getRoomByName(sensorData.getRoom());
+            boolean isActiveSwitch = isActiveRoomSwitch(room, switchStatus);
+            Boolean desiredPower = getDesiredPower(room, sensorData, isActiveSwitch, switchStatus, context);
+
+            if (Boolean.TRUE.equals(desiredPower) && !isActiveSwitch) {
+                needHeat.add(sensorData);
+            } else if (Boolean.FALSE.equals(desiredPower) && isActiveSwitch && decidedSwitches.add(room.getSwitchURL())) {
+                operations.add(new Operation(room.getSwitchURL(), false));
+                currentEnergy -= getRoomLoad(index, room, switchStatus);
+            }
+        }
+
+        needHeat.sort(Comparator.comparingDouble((DataSensor sensorData) ->
+                sensorData.getTemperature() - index.getRoomByName(sensorData.getRoom()).getExpectedTemp()));
+
+        for (DataSensor sensorData : needHeat) {
+            Room room = index.getRoomByName(sensorData.getRoom());
+            if (!decidedSwitches.add(room.getSwitchURL())) {
+                continue;
+            }
+            if (currentEnergy + room.getEnergy() <= maxEnergy) {
+                operations.add(new Operation(room.getSwitchURL(), true));
+                currentEnergy += room.getEnergy();
+            } else {
+                operations.add(new Operation(room.getSwitchURL(), false));
+            }
+        }
+
         return new ControlResponse(operations, context);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,15 @@
+package com.ioteste.control;
+
+/**
+ * How much energy the controller may keep switched on. A single instance uses
+ * the {@code maxEnergy} of the site; a shard of a larger deployment only gets
+ * its part of it.
+ */
+@FunctionalInterface
+public interface EnergyBudget {
+
+    float getMaxEnergy(DataSite site);
+
+    /** The whole {@code maxEnergy} of the site. */
+    EnergyBudget SITE = DataSite::getMaxEnergy;
+}
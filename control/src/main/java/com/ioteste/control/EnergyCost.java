@@ -5,7 +5,6 @@ public class EnergyCost {
     public final static String TEST_CONTRACT_30S = "testContract";
     public final static int LOW = 0;
     public final static int HIGH = 1;
-    private final static long ZONE_DURATION = 1000 * 60; // 1 minuto (60000 ms)
 
     public record EnergyZone(int current, int next, long nextTS) {
     }
@@ -14,16 +13,12 @@ public class EnergyCost {
         return energyZone(contract, System.currentTimeMillis());
     }
 
+    /**
+     * Looks the contract up in {@link TariffEngine#getDefault()}.
+     *
+     * @throws IllegalArgumentException if the contract is not registered.
+     */
     public static EnergyZone energyZone(String contract, long ts) {
-        if (TEST_CONTRACT_30S.equals(contract)) {
-            long base = ts / ZONE_DURATION;
-            int zone = (int) (base % 2);
-            int nextZone = (zone + 1) % 2;
-            long nextZoneTS = (base + 1) * ZONE_DURATION;
-
-            return new EnergyZone(zone, nextZone, nextZoneTS);
-        } else {
-            throw new IllegalArgumentException("Invalid contract value: " + contract);
-        }
+        return TariffEngine.getDefault().zone(contract, ts);
     }
 }
\ No newline at end of file
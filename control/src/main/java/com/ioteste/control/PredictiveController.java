@@ -0,0 +1,231 @@
+package com.ioteste.control;
+
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Controller that switches less often than {@link DefaultController} and
+ * heats ahead of the peak hours.
+ * <p>
+ * A room turns on below {@code expectedTemp - hysteresis} and off at
+ * {@code expectedTemp + hysteresis}, and a switch keeps its state for at
+ * least {@code minOnMs} / {@code minOffMs} after it acknowledged a change.
+ * Peak hours, the energy budget and batches work as in the default
+ * controller; the peak shutdown ignores the dwell times.
+ * <p>
+ * Each room has a thermal model: how fast it warms while on and cools while
+ * off, in degrees per millisecond, learned as a moving average of the slope
+ * between consecutive readings. Before a peak the target is raised by what
+ * the room is expected to lose while heating is off, capped at
+ * {@code maxPreheat}, starting as late as the learned heating rate allows.
+ */
+public class PredictiveController extends DefaultController {
+
+    public record Settings(float hysteresis, long minOnMs, long minOffMs, double learningRate,
+            float maxPreheat, long maxLeadMs, long maxGapMs) {
+
+        public static Settings defaults() {
+            return new Settings(0.3f, 120_000, 60_000, 0.2, 2f, 30 * 60_000, 15 * 60_000);
+        }
+    }
+
+    /**
+     * Learned state of one room. Updates are O(1) and keep no history.
+     */
+    static final class RoomModel {
+        private double heatRate = Double.NaN;
+        private double coolRate = Double.NaN;
+        private float lastTemperature = Float.NaN;
+        private long lastReadingTs;
+        private boolean lastOn;
+        private boolean lastObserved;
+        private boolean known;
+        private long changedAt = Long.MIN_VALUE;
+
+        /**
+         * Folds the slope since the last reading into the rate of the state the
+         * switch was in meanwhile.
+         */
+        void learn(float temperature, long ts, double learningRate, long maxGapMs) {
+            long dt = ts - lastReadingTs;
+            if (!Float.isNaN(lastTemperature) && dt > 0 && dt <= maxGapMs) {
+                double slope = (temperature - lastTemperature) / dt;
+                if (lastOn) {
+                    heatRate = Double.isNaN(heatRate) ? slope : heatRate + learningRate * (slope - heatRate);
+                } else {
+                    coolRate = Double.isNaN(coolRate) ? slope : coolRate + learningRate * (slope - coolRate);
+                }
+            }
+            lastTemperature = temperature;
+            lastReadingTs = ts;
+        }
+
+        /**
+         * Records the switch state seen now; a change restarts the dwell time.
+         */
+        void observe(boolean on, long now) {
+            if (known && on != lastObserved) {
+                changedAt = now;
+            }
+            lastObserved = on;
+            lastOn = on;
+            known = true;
+        }
+
+        /**
+         * @return true if the switch has kept its state for at least {@code minMs}.
+         */
+        boolean hasDwelled(long now, long minMs) {
+            return changedAt == Long.MIN_VALUE || now - changedAt >= minMs;
+        }
+
+        /**
+         * Records a state the switch acknowledged; a change restarts the dwell time.
+         */
+        void switched(boolean on, long now) {
+            if (known && lastObserved == on) {
+                return;
+            }
+            lastObserved = on;
+            lastOn = on;
+            known = true;
+            changedAt = now;
+        }
+
+        double getHeatRate() {
+            return heatRate;
+        }
+
+        double getCoolRate() {
+            return coolRate;
+        }
+    }
+
+    private final Settings settings;
+    private final Map<String, RoomModel> models = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> roomsBySwitch = new ConcurrentHashMap<>();
+
+    private record Peak(long start, long length) {
+    }
+
+    private volatile Peak peak = new Peak(Long.MIN_VALUE, 0);
+
+    public PredictiveController() {
+        this(EnergyCost.TEST_CONTRACT_30S, Settings.defaults());
+    }
+
+    /**
+     * @param contract name of a contract registered in {@link TariffEngine#getDefault()}.
+     */
+    public PredictiveController(String contract, Settings settings) {
+        super(contract);
+        this.settings = settings;
+    }
+
+    /**
+     * Learns from the reading, then asks for a change only past the
+     * hysteresis band and once the switch has dwelled in its state. The budget
+     * check, the batch allocation and the peak shutdown are the default
+     * controller's.
+     */
+    @Override
+    Boolean getDesiredPower(Room room, DataSensor sensorData, boolean isActiveSwitch, List<DataSwitch> switchStatus,
+            Context context) {
+        long now = context.getTimestamp();
+        float temperature = sensorData.getTemperature();
+        RoomModel model = models.computeIfAbsent(room.getName(), name -> new RoomModel());
+        roomsBySwitch.computeIfAbsent(room.getSwitchURL(), url -> ConcurrentHashMap.newKeySet()).add(room.getName());
+        synchronized (model) {
+            long readingTs = sensorData.getDateTime() != null
+                    ? sensorData.getDateTime().toInstant(ZoneOffset.UTC).toEpochMilli()
+                    : now;
+            model.learn(temperature, readingTs, settings.learningRate(), settings.maxGapMs());
+            model.observe(isAcknowledgedOn(room, switchStatus), now);
+
+            float target = getTarget(model, room.getExpectedTemp(), temperature, now);
+            if (!isActiveSwitch && temperature < target - settings.hysteresis()
+                    && model.hasDwelled(now, settings.minOffMs())) {
+                return true;
+            }
+            if (isActiveSwitch && temperature >= target + settings.hysteresis()
+                    && model.hasDwelled(now, settings.minOnMs())) {
+                return false;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The dwell time of a switch starts when it acknowledges the change, not
+     * when the change is decided.
+     */
+    @Override
+    public void acknowledged(Operation op, long timestamp) {
+        Set<String> rooms = roomsBySwitch.get(op.getSwitchURL());
+        if (rooms == null) {
+            return;
+        }
+        for (String name : rooms) {
+            RoomModel model = models.get(name);
+            if (model != null) {
+                synchronized (model) {
+                    model.switched(op.getPower(), timestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * The state the switch acknowledged, ignoring a turn-on still in flight.
+     */
+    private static boolean isAcknowledgedOn(Room room, List<DataSwitch> switchStatus) {
+        if (switchStatus instanceof SwitchSnapshot snapshot) {
+            return snapshot.isActive(room.getSwitchURL());
+        }
+        for (DataSwitch dSwitch : switchStatus) {
+            if (room.getSwitchURL().equals(dSwitch.getSwitchURL())) {
+                return dSwitch.isActive();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The expected temperature, raised ahead of a peak by what the room should
+     * lose while heating is off. Without a learned cooling rate there is no
+     * pre-heat.
+     */
+    float getTarget(RoomModel model, float expectedTemp, float temperature, long now) {
+        EnergyCost.EnergyZone zone = getTariff().zoneAt(now);
+        if (zone.next() != EnergyCost.HIGH || Double.isNaN(model.getCoolRate()) || model.getCoolRate() >= 0) {
+            return expectedTemp;
+        }
+        float boost = (float) Math.min(settings.maxPreheat(), -model.getCoolRate() * getPeakLength(zone.nextTS()));
+        float boosted = expectedTemp + boost;
+        double heatRate = model.getHeatRate();
+        long lead = heatRate > 0
+                ? (long) Math.min(settings.maxLeadMs(), Math.max(0, boosted - temperature) / heatRate)
+                : settings.maxLeadMs();
+        return zone.nextTS() - now <= lead ? boosted : expectedTemp;
+    }
+
+    /**
+     * Length of the peak starting at {@code start}, looked up once per peak.
+     */
+    private long getPeakLength(long start) {
+        Peak known = peak;
+        if (known.start() != start) {
+            long end = TariffEngine.getDefault().zone(getTariff().getContract(), start).nextTS();
+            known = new Peak(start, end - start);
+            peak = known;
+        }
+        return known.length();
+    }
+
+    RoomModel getModel(String room) {
+        return models.get(room);
+    }
+}
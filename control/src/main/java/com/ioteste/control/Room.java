@@ -6,6 +6,7 @@ public class Room {
     private float energy;
     private String switchURL;
     private String sensor;
+    private long sensorTimeoutMs;
 
     public Room() {}
     
@@ -36,9 +37,18 @@ public class Room {
     public String getSwitchURL() {
         return switchURL;
     }
+
+    /**
+     * @return how long the sensor may stay silent before the switch is turned
+     * off, or 0 to use the application default.
+     */
+    public long getSensorTimeoutMs() {
+        return sensorTimeoutMs;
+    }
     
     public void setName(String name) { this.name = name; }
     public void setExpectedTemp(float expectedTemp) { this.expectedTemp = expectedTemp; }
     public void setEnergy(float energy) { this.energy = energy; }
     public void setSwitchURL(String switchURL) { this.switchURL = switchURL; }
+    public void setSensorTimeoutMs(long sensorTimeoutMs) { this.sensorTimeoutMs = sensorTimeoutMs; }
 }
\ No newline at end of file
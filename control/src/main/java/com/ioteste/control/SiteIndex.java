@@ -0,0 +1,101 @@
+package com.ioteste.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable lookup tables over the rooms of a {@link DataSite}.
+ * Built once per site config so that mapping a sensor topic or a switch URL
+ * back to its room does not require scanning the room list.
+ */
+public final class SiteIndex {
+
+    private final List<Room> rooms;
+    private final Map<String, Room> roomsByName;
+    private final Map<String, Room> roomsByTopicId;
+    private final Map<String, Room> roomsBySwitchURL;
+    private final Map<String, Integer> slotsBySwitchURL;
+    private final List<String> switchURLs;
+    private final float[] switchEnergy;
+
+    public SiteIndex(List<Room> rooms) {
+        List<Room> roomList = new ArrayList<>();
+        Map<String, Room> byName = new HashMap<>();
+        Map<String, Room> byTopicId = new HashMap<>();
+        Map<String, Room> bySwitchURL = new HashMap<>();
+        Map<String, Integer> slots = new HashMap<>();
+        List<String> urls = new ArrayList<>();
+        List<Float> energies = new ArrayList<>();
+
+        if (rooms != null) {
+            for (Room room : rooms) {
+                roomList.add(room);
+                if (room.getName() != null) {
+                    byName.putIfAbsent(room.getName(), room);
+                }
+                String switchURL = room.getSwitchURL();
+                if (switchURL == null) {
+                    continue;
+                }
+                byTopicId.putIfAbsent(lastSegment(switchURL), room);
+                bySwitchURL.putIfAbsent(switchURL, room);
+                Integer slot = slots.get(switchURL);
+                if (slot == null) {
+                    slots.put(switchURL, urls.size());
+                    urls.add(switchURL);
+                    energies.add(room.getEnergy());
+                } else {
+                    energies.set(slot, energies.get(slot) + room.getEnergy());
+                }
+            }
+        }
+
+        this.rooms = Collections.unmodifiableList(roomList);
+        this.roomsByName = Map.copyOf(byName);
+        this.roomsByTopicId = Map.copyOf(byTopicId);
+        this.roomsBySwitchURL = Map.copyOf(bySwitchURL);
+        this.slotsBySwitchURL = Map.copyOf(slots);
+        this.switchURLs = List.copyOf(urls);
+        this.switchEnergy = new float[energies.size()];
+        for (int i = 0; i < switchEnergy.length; i++) {
+            switchEnergy[i] = energies.get(i);
+        }
+    }
+
+    /**
+     * Returns the part of a topic or URL after its last '/', which is how
+     * sensor topics are matched against switch URLs.
+     */
+    public static String lastSegment(String value) {
+        return value.substring(value.lastIndexOf('/') + 1);
+    }
+
+    public List<Room> getRooms() { return rooms; }
+    public Room getRoomByName(String name) { return name == null ? null : roomsByName.get(name); }
+    public Room getRoomByTopicId(String topicId) { return topicId == null ? null : roomsByTopicId.get(topicId); }
+    public Room getRoomByTopic(String topic) { return topic == null ? null : roomsByTopicId.get(lastSegment(topic)); }
+    public Room getRoomBySwitchURL(String switchURL) { return switchURL == null ? null : roomsBySwitchURL.get(switchURL); }
+
+    /**
+     * Slot of a switch in {@link #getSwitchURLs()}, or -1 if the switch is not part of the site.
+     */
+    public int getSlot(String switchURL) {
+        Integer slot = switchURL == null ? null : slotsBySwitchURL.get(switchURL);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Distinct switch URLs of the site, in room order. Position i is slot i.
+     */
+    public List<String> getSwitchURLs() { return switchURLs; }
+
+    public int getSwitchCount() { return switchURLs.size(); }
+
+    /**
+     * Nominal energy of every room wired to the switch in the given slot.
+     */
+    public float getSwitchEnergy(int slot) { return switchEnergy[slot]; }
+}
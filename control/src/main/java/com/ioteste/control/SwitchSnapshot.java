@@ -0,0 +1,421 @@
+package com.ioteste.control;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, versioned state of every switch of a site.
+ * <p>
+ * States are packed one bit per switch slot of the {@link SiteIndex}. Updates
+ * never modify a snapshot: {@link #withActive(int, boolean)} returns a new one
+ * with the next version, so readers can hold on to a snapshot without copying
+ * or locking. As a {@code List<DataSwitch>} it is read-only, and every
+ * element it hands out is a detached copy.
+ * <p>
+ * The nominal load of all active switches is carried along and adjusted by
+ * each flip, so reading it is O(1).
+ * <p>
+ * A second bitset tells which switches have actually reported a state. An
+ * unknown switch reads as inactive until its first state is recorded.
+ * <p>
+ * Switches may also report the load they actually draw. Measurements are kept
+ * in pages of {@value #PAGE_SIZE} slots so recording one only copies the page
+ * table and that page. The active load uses the measurement of a switch when
+ * there is one and its nominal energy otherwise. A measurement is dropped
+ * when the switch flips, since it described the other state.
+ * <p>
+ * A third bitset marks switches with a turn-on in flight. Until the switch
+ * acknowledges it or the command fails, a reserved switch that is still off
+ * counts its nominal energy in the active load, so budget checks made
+ * meanwhile see it.
+ */
+public final class SwitchSnapshot extends AbstractList<DataSwitch> implements RandomAccess {
+
+    private final SiteIndex index;
+    private final long version;
+    private final long[] activeBits;
+    private final long[] knownBits;
+    private final double activeEnergy;
+    private final double[][] measuredPages;
+    private final double activeLoad;
+    private final long[] reservedBits;
+    private final double reservedLoad;
+
+    static final int PAGE_SIZE = 1024;
+
+    /**
+     * A snapshot where no switch has reported its state yet.
+     */
+    public SwitchSnapshot(SiteIndex index) {
+        this(index, 0L, new long[words(index.getSwitchCount())], new long[words(index.getSwitchCount())], 0.0,
+                new double[pages(index.getSwitchCount())][], 0.0, new long[words(index.getSwitchCount())], 0.0);
+    }
+
+    /**
+     * Builds the first snapshot of a site from a list of known states.
+     * Switches that are not part of the site are ignored; switches of the
+     * site missing from the list stay unknown.
+     */
+    public static SwitchSnapshot of(SiteIndex index, List<DataSwitch> switches) {
+        return build(index, 0L, switches, List.of());
+    }
+
+    private static SwitchSnapshot build(SiteIndex index, long version, List<DataSwitch> switches,
+            List<String> reservedURLs) {
+        long[] bits = new long[words(index.getSwitchCount())];
+        long[] known = new long[bits.length];
+        long[] reserved = new long[bits.length];
+        for (String switchURL : reservedURLs) {
+            int slot = index.getSlot(switchURL);
+            if (slot >= 0) {
+                reserved[slot >>> 6] |= 1L << slot;
+            }
+        }
+        double[][] measured = new double[pages(index.getSwitchCount())][];
+        for (DataSwitch ds : switches) {
+            int slot = index.getSlot(ds.getSwitchURL());
+            if (slot < 0) {
+                continue;
+            }
+            known[slot >>> 6] |= 1L << slot;
+            if (ds.isActive()) {
+                bits[slot >>> 6] |= 1L << slot;
+            }
+            if (ds.hasMeasuredPower()) {
+                double[] page = measured[slot / PAGE_SIZE];
+                if (page == null) {
+                    page = newPage();
+                    measured[slot / PAGE_SIZE] = page;
+                }
+                page[slot % PAGE_SIZE] = ds.getMeasuredPower();
+            }
+        }
+        SwitchSnapshot snapshot = new SwitchSnapshot(index, version, bits, known, 0.0, measured, 0.0, reserved, 0.0);
+        double reservedLoad = snapshot.recomputeReservedLoad();
+        return new SwitchSnapshot(index, version, bits, known, snapshot.recomputeActiveEnergy(), measured,
+                snapshot.recomputeActiveLoad() - reservedLoad, reserved, reservedLoad);
+    }
+
+    /**
+     * Moves the known states, measurements and reservations to the slots of
+     * another index of the site, matching switches by URL. Switches only in {@code next}
+     * start unknown; switches missing from it are dropped.
+     *
+     * @return a snapshot over {@code next} with the next version.
+     */
+    public SwitchSnapshot reindex(SiteIndex next) {
+        List<DataSwitch> known = new ArrayList<>(getKnownCount());
+        List<String> reserved = new ArrayList<>();
+        for (int slot = 0; slot < size(); slot++) {
+            if (isKnown(slot)) {
+                known.add(get(slot));
+            }
+            if (isReserved(slot)) {
+                reserved.add(index.getSwitchURLs().get(slot));
+            }
+        }
+        return build(next, version + 1, known, reserved);
+    }
+
+    private SwitchSnapshot(SiteIndex index, long version, long[] activeBits, long[] knownBits, double activeEnergy,
+            double[][] measuredPages, double activeLoad, long[] reservedBits, double reservedLoad) {
+        this.index = index;
+        this.version = version;
+        this.activeBits = activeBits;
+        this.knownBits = knownBits;
+        this.activeEnergy = activeEnergy;
+        this.measuredPages = measuredPages;
+        this.activeLoad = activeLoad;
+        this.reservedBits = reservedBits;
+        this.reservedLoad = reservedLoad;
+    }
+
+    private static int words(int slots) {
+        return (slots + 63) >>> 6;
+    }
+
+    private static int pages(int slots) {
+        return (slots + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    private static double[] newPage() {
+        double[] page = new double[PAGE_SIZE];
+        Arrays.fill(page, Double.NaN);
+        return page;
+    }
+
+    public SiteIndex getIndex() { return index; }
+    public long getVersion() { return version; }
+
+    public boolean isActive(int slot) {
+        return (activeBits[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * @return the state of the switch, or false if it is not part of the site.
+     */
+    public boolean isActive(String switchURL) {
+        int slot = index.getSlot(switchURL);
+        return slot >= 0 && isActive(slot);
+    }
+
+    public boolean isKnown(int slot) {
+        return (knownBits[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    public boolean isReserved(int slot) {
+        return (reservedBits[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * @return true if the switch is on or has a turn-on in flight.
+     */
+    public boolean isActiveOrReserved(int slot) {
+        return isActive(slot) || isReserved(slot);
+    }
+
+    /**
+     * @return true if the switch is on or has a turn-on in flight, false if
+     * it is not part of the site.
+     */
+    public boolean isActiveOrReserved(String switchURL) {
+        int slot = index.getSlot(switchURL);
+        return slot >= 0 && isActiveOrReserved(slot);
+    }
+
+    /**
+     * Marks a turn-on of the switch as in flight, or clears the mark once it
+     * was acknowledged or failed.
+     *
+     * @return this snapshot if the mark already had that value, otherwise a
+     * new snapshot with the next version.
+     */
+    public SwitchSnapshot withReserved(int slot, boolean reserved) {
+        if (isReserved(slot) == reserved) {
+            return this;
+        }
+        long[] bits = reservedBits.clone();
+        bits[slot >>> 6] ^= 1L << slot;
+        double load = reservedLoad;
+        if (!isActive(slot)) {
+            load += reserved ? index.getSwitchEnergy(slot) : -index.getSwitchEnergy(slot);
+        }
+        return new SwitchSnapshot(index, version + 1, activeBits, knownBits, activeEnergy, measuredPages, activeLoad,
+                bits, load);
+    }
+
+    public int getKnownCount() {
+        int count = 0;
+        for (long word : knownBits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return the next slot at or after {@code fromSlot} whose state is unknown, or -1.
+     */
+    public int nextUnknownSlot(int fromSlot) {
+        for (int slot = fromSlot; slot < size(); slot++) {
+            if ((slot & 63) == 0 && slot + 64 <= size() && knownBits[slot >>> 6] == -1L) {
+                slot += 63;
+                continue;
+            }
+            if (!isKnown(slot)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records the state of a switch, which also makes it known.
+     *
+     * @return this snapshot if the switch already had that known state, otherwise
+     * a new snapshot with the next version.
+     */
+    public SwitchSnapshot withActive(int slot, boolean active) {
+        boolean known = isKnown(slot);
+        if (known && isActive(slot) == active) {
+            return this;
+        }
+        long[] knownNext = knownBits;
+        if (!known) {
+            knownNext = knownBits.clone();
+            knownNext[slot >>> 6] |= 1L << slot;
+        }
+        if (isActive(slot) == active) {
+            return new SwitchSnapshot(index, version + 1, activeBits, knownNext, activeEnergy, measuredPages, activeLoad,
+                    reservedBits, reservedLoad);
+        }
+        long[] bits = activeBits.clone();
+        bits[slot >>> 6] ^= 1L << slot;
+        double energy = active
+                ? activeEnergy + index.getSwitchEnergy(slot)
+                : activeEnergy - index.getSwitchEnergy(slot);
+        double load = active
+                ? activeLoad + index.getSwitchEnergy(slot)
+                : activeLoad - getLoad(slot);
+        double reserved = reservedLoad;
+        if (isReserved(slot)) {
+            reserved += active ? -index.getSwitchEnergy(slot) : index.getSwitchEnergy(slot);
+        }
+        return new SwitchSnapshot(index, version + 1, bits, knownNext, energy, withMeasurement(slot, Double.NaN), load,
+                reservedBits, reserved);
+    }
+
+    /**
+     * Records the state of a switch together with the load it reported.
+     *
+     * @param measuredPower in the unit of the room energies, or NaN if not reported.
+     * @return this snapshot if nothing changed, otherwise a new snapshot with the next version.
+     */
+    public SwitchSnapshot withStatus(int slot, boolean active, double measuredPower) {
+        SwitchSnapshot next = withActive(slot, active);
+        double before = next.getMeasuredPower(slot);
+        if (Double.compare(before, measuredPower) == 0) {
+            return next;
+        }
+        double load = next.activeLoad;
+        if (active) {
+            load += (Double.isNaN(measuredPower) ? index.getSwitchEnergy(slot) : measuredPower) - next.getLoad(slot);
+        }
+        return new SwitchSnapshot(index, version + 1, next.activeBits, next.knownBits, next.activeEnergy,
+                next.withMeasurement(slot, measuredPower), load, next.reservedBits, next.reservedLoad);
+    }
+
+    private double[][] withMeasurement(int slot, double measuredPower) {
+        double[] page = measuredPages[slot / PAGE_SIZE];
+        if (page == null && Double.isNaN(measuredPower)) {
+            return measuredPages;
+        }
+        page = page == null ? newPage() : page.clone();
+        page[slot % PAGE_SIZE] = measuredPower;
+        double[][] pages = measuredPages.clone();
+        pages[slot / PAGE_SIZE] = page;
+        return pages;
+    }
+
+    /**
+     * @return the load last reported by the switch, or NaN.
+     */
+    public double getMeasuredPower(int slot) {
+        double[] page = measuredPages[slot / PAGE_SIZE];
+        return page == null ? Double.NaN : page[slot % PAGE_SIZE];
+    }
+
+    /**
+     * @return what the switch draws: its measurement if there is one, its
+     * nominal energy otherwise, and 0 if it is inactive.
+     */
+    public double getLoad(int slot) {
+        if (!isActive(slot)) {
+            return 0.0;
+        }
+        double measured = getMeasuredPower(slot);
+        return Double.isNaN(measured) ? index.getSwitchEnergy(slot) : measured;
+    }
+
+    /**
+     * Load of every active switch, preferring measurements over nominal
+     * energies, plus the nominal energy of every reserved switch that is
+     * still off, maintained incrementally.
+     */
+    public double getActiveLoad() {
+        return activeLoad + reservedLoad;
+    }
+
+    /**
+     * Sums {@link #getLoad(int)} of every active switch and the reserved load
+     * from scratch.
+     */
+    public double recomputeActiveLoad() {
+        double load = 0.0;
+        for (int slot = nextActiveSlot(0); slot >= 0; slot = nextActiveSlot(slot + 1)) {
+            load += getLoad(slot);
+        }
+        return load + recomputeReservedLoad();
+    }
+
+    /**
+     * Nominal energy of the reserved switches that are still off.
+     */
+    public double getReservedLoad() {
+        return reservedLoad;
+    }
+
+    private double recomputeReservedLoad() {
+        double load = 0.0;
+        for (int slot = 0; slot < size(); slot++) {
+            if ((slot & 63) == 0 && reservedBits[slot >>> 6] == 0) {
+                slot += 63;
+                continue;
+            }
+            if (isReserved(slot) && !isActive(slot)) {
+                load += index.getSwitchEnergy(slot);
+            }
+        }
+        return load;
+    }
+
+    /**
+     * Nominal energy of every active switch, maintained incrementally.
+     */
+    public double getActiveEnergy() {
+        return activeEnergy;
+    }
+
+    /**
+     * Sums the nominal energy of every active switch from scratch. Used to
+     * check that {@link #getActiveEnergy()} has not drifted.
+     */
+    public double recomputeActiveEnergy() {
+        double energy = 0.0;
+        for (int slot = nextActiveSlot(0); slot >= 0; slot = nextActiveSlot(slot + 1)) {
+            energy += index.getSwitchEnergy(slot);
+        }
+        return energy;
+    }
+
+    public int getActiveCount() {
+        int count = 0;
+        for (long word : activeBits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return the next active slot at or after {@code fromSlot}, or -1.
+     */
+    public int nextActiveSlot(int fromSlot) {
+        int word = fromSlot >>> 6;
+        if (word >= activeBits.length) {
+            return -1;
+        }
+        long bits = activeBits[word] & (-1L << fromSlot);
+        while (true) {
+            if (bits != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return slot < size() ? slot : -1;
+            }
+            if (++word == activeBits.length) {
+                return -1;
+            }
+            bits = activeBits[word];
+        }
+    }
+
+    @Override
+    public DataSwitch get(int slot) {
+        return new DataSwitch(index.getSwitchURLs().get(slot), isActive(slot), getMeasuredPower(slot));
+    }
+
+    @Override
+    public int size() {
+        return index.getSwitchCount();
+    }
+}
@@ -0,0 +1,139 @@
+package com.ioteste.control;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+
+/**
+ * Status reported by a switch, decoded straight from the response bytes.
+ * <p>
+ * Understands the Shelly {@code Switch.GetStatus} answer, either bare or
+ * wrapped in {@code result} or {@code switch:0}, and the older {@code ison}
+ * flag. Readings the switch does not report are NaN.
+ */
+public class SwitchStatus {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private boolean hasOutput;
+    private boolean output;
+    private double activePower = Double.NaN;
+    private double voltage = Double.NaN;
+    private double current = Double.NaN;
+    private double temperature = Double.NaN;
+    private double energyTotal = Double.NaN;
+
+    public SwitchStatus(byte[] statusJson) throws JsonProcessingException {
+        try (JsonParser parser = JSON_FACTORY.createParser(statusJson)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                decodeObject(parser);
+            }
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonParseException(null, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the fields of the current object, descending into the wrappers.
+     * Everything else is skipped without being materialized.
+     */
+    private void decodeObject(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "output", "ison" -> {
+                    if (value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE) {
+                        hasOutput = true;
+                        output = value == JsonToken.VALUE_TRUE;
+                    }
+                }
+                case "apower" -> activePower = readDouble(parser, value);
+                case "voltage" -> voltage = readDouble(parser, value);
+                case "current" -> current = readDouble(parser, value);
+                case "temperature" -> temperature = readNestedDouble(parser, value, "tC");
+                case "aenergy" -> energyTotal = readNestedDouble(parser, value, "total");
+                case "result", "switch:0" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        decodeObject(parser);
+                    }
+                }
+                default -> { }
+            }
+            parser.skipChildren();
+        }
+    }
+
+    private static double readDouble(JsonParser parser, JsonToken token) throws IOException {
+        return token.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+    }
+
+    private static double readNestedDouble(JsonParser parser, JsonToken token, String field) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            return Double.NaN;
+        }
+        double result = Double.NaN;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals(name)) {
+                result = readDouble(parser, value);
+            }
+            parser.skipChildren();
+        }
+        return result;
+    }
+
+    /**
+     * @return false if the answer carried no output state.
+     */
+    public boolean hasOutput() {
+        return hasOutput;
+    }
+
+    public boolean isOutput() {
+        return output;
+    }
+
+    /**
+     * @return instantaneous active power in watts, or NaN.
+     */
+    public double getActivePower() {
+        return activePower;
+    }
+
+    public double getVoltage() {
+        return voltage;
+    }
+
+    public double getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return internal temperature of the relay in °C, or NaN.
+     */
+    public double getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * @return energy counted by the switch in Wh, or NaN.
+     */
+    public double getEnergyTotal() {
+        return energyTotal;
+    }
+
+    /**
+     * The switch state with its measured load converted from watts to the
+     * kW used for room energies.
+     */
+    public DataSwitch toDataSwitch(String switchURL) {
+        return new DataSwitch(switchURL, output, activePower / 1000.0);
+    }
+}
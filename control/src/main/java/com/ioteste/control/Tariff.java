@@ -0,0 +1,13 @@
+package com.ioteste.control;
+
+/**
+ * An energy contract: which zone applies at a given instant and when it changes.
+ */
+public interface Tariff {
+
+    /**
+     * @param ts epoch millis.
+     * @return the zone at {@code ts}, the next zone and when it starts.
+     */
+    EnergyCost.EnergyZone zoneAt(long ts);
+}
@@ -0,0 +1,141 @@
+package com.ioteste.control;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of energy contracts by name.
+ * <p>
+ * {@link EnergyCost#TEST_CONTRACT_30S} is always registered. Real contracts are
+ * loaded from a JSON document ({@code {"contracts": [...]}}, see
+ * {@link TimeOfUseTariff}). {@link #cached(String)} hands out one shared
+ * {@link CachedZone} per contract, so every reader of the same contract reuses
+ * the zone computed at the last transition.
+ */
+public class TariffEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(TariffEngine.class);
+
+    private static final long TEST_ZONE_DURATION = 1000 * 60;
+
+    private static final TariffEngine DEFAULT = new TariffEngine();
+
+    private final Map<String, Tariff> tariffs = new ConcurrentHashMap<>();
+    private final Map<String, CachedZone> caches = new ConcurrentHashMap<>();
+
+    public TariffEngine() {
+        register(EnergyCost.TEST_CONTRACT_30S, ts -> {
+            long base = ts / TEST_ZONE_DURATION;
+            int zone = (int) (base % 2);
+            return new EnergyCost.EnergyZone(zone, (zone + 1) % 2, (base + 1) * TEST_ZONE_DURATION);
+        });
+    }
+
+    /**
+     * The engine used by {@link EnergyCost}, the controller and the app.
+     */
+    public static TariffEngine getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adds or replaces a contract. Cached zones of that contract are dropped.
+     */
+    public void register(String contract, Tariff tariff) {
+        tariffs.put(contract, tariff);
+        CachedZone cache = caches.get(contract);
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * Registers every contract of a {@code {"contracts": [...]}} document.
+     *
+     * @return how many contracts were loaded.
+     */
+    public int load(String json) throws JsonProcessingException {
+        JsonNode root = new ObjectMapper().readTree(json);
+        JsonNode contracts = root.get("contracts");
+        if (contracts == null || !contracts.isArray()) {
+            throw new IllegalArgumentException("Missing \"contracts\" array");
+        }
+        int loaded = 0;
+        for (JsonNode node : contracts) {
+            TimeOfUseTariff tariff = TimeOfUseTariff.fromJson(node);
+            register(tariff.getName(), tariff);
+            logger.info("Loaded energy contract '{}'", tariff.getName());
+            loaded++;
+        }
+        return loaded;
+    }
+
+    public boolean hasContract(String contract) {
+        return tariffs.containsKey(contract);
+    }
+
+    public EnergyCost.EnergyZone zone(String contract, long ts) {
+        Tariff tariff = tariffs.get(contract);
+        if (tariff == null) {
+            throw new IllegalArgumentException("Invalid contract value: " + contract);
+        }
+        return tariff.zoneAt(ts);
+    }
+
+    public CachedZone cached(String contract) {
+        return caches.computeIfAbsent(contract, name -> new CachedZone(this, name));
+    }
+
+    /**
+     * Last zone looked up for a contract. A lookup inside the interval the zone
+     * was computed for costs two reads; anything else goes to the tariff and
+     * replaces the cached zone.
+     */
+    public static final class CachedZone {
+
+        private record Entry(long from, EnergyCost.EnergyZone zone) {
+        }
+
+        private final TariffEngine engine;
+        private final String contract;
+        private volatile Entry entry;
+
+        private CachedZone(TariffEngine engine, String contract) {
+            this.engine = engine;
+            this.contract = contract;
+        }
+
+        public String getContract() {
+            return contract;
+        }
+
+        public EnergyCost.EnergyZone current() {
+            return zoneAt(System.currentTimeMillis());
+        }
+
+        public EnergyCost.EnergyZone zoneAt(long ts) {
+            Entry e = entry;
+            if (e != null && ts >= e.from() && ts < e.zone().nextTS()) {
+                return e.zone();
+            }
+            EnergyCost.EnergyZone zone = engine.zone(contract, ts);
+            entry = new Entry(ts, zone);
+            return zone;
+        }
+
+        public boolean isPeak(long ts) {
+            return zoneAt(ts).current() == EnergyCost.HIGH;
+        }
+
+        void invalidate() {
+            entry = null;
+        }
+    }
+}
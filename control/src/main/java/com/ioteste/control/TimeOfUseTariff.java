@@ -0,0 +1,229 @@
+package com.ioteste.control;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Time-of-use contract: zones by weekday and time of day in a timezone, with
+ * holidays that use a single zone for the whole day.
+ * <p>
+ * The contract is compiled into a sorted table of transitions covering a
+ * window of days; looking a zone up is a binary search over that table. When a
+ * lookup falls outside the window, a new window starting on that day is
+ * compiled and replaces the previous one.
+ * <pre>
+ * {
+ *   "name": "residencial-triple",
+ *   "timezone": "America/Montevideo",
+ *   "defaultZone": "LOW",
+ *   "bands": [
+ *     { "days": ["MON", "TUE", "WED", "THU", "FRI"], "from": "18:00", "to": "22:00", "zone": "HIGH" }
+ *   ],
+ *   "holidays": ["2025-12-25"],
+ *   "holidayZone": "LOW"
+ * }
+ * </pre>
+ * A band whose {@code to} is not after its {@code from} lasts until midnight.
+ * When bands overlap, the one declared last wins.
+ */
+public class TimeOfUseTariff implements Tariff {
+
+    static final int WINDOW_DAYS = 8;
+    private static final int MAX_LOOKAHEAD_WINDOWS = 64;
+
+    public record Band(Set<DayOfWeek> days, LocalTime from, LocalTime to, int zone) {
+    }
+
+    /**
+     * Transitions of one window: zone {@code zones[i]} applies from
+     * {@code starts[i]} until {@code starts[i + 1]}.
+     */
+    private record Table(long from, long to, long[] starts, int[] zones) {
+    }
+
+    private final String name;
+    private final ZoneId timezone;
+    private final int defaultZone;
+    private final List<Band> bands;
+    private final Set<LocalDate> holidays;
+    private final int holidayZone;
+
+    private volatile Table table;
+
+    public TimeOfUseTariff(String name, ZoneId timezone, int defaultZone, List<Band> bands,
+            Set<LocalDate> holidays, int holidayZone) {
+        this.name = name;
+        this.timezone = timezone;
+        this.defaultZone = defaultZone;
+        this.bands = List.copyOf(bands);
+        this.holidays = Set.copyOf(holidays);
+        this.holidayZone = holidayZone;
+    }
+
+    public static TimeOfUseTariff fromJson(JsonNode node) {
+        String name = node.get("name").asText();
+        ZoneId timezone = node.hasNonNull("timezone") ? ZoneId.of(node.get("timezone").asText()) : ZoneId.of("UTC");
+        int defaultZone = node.hasNonNull("defaultZone") ? parseZone(node.get("defaultZone").asText()) : EnergyCost.LOW;
+
+        List<Band> bands = new ArrayList<>();
+        JsonNode bandsJson = node.get("bands");
+        if (bandsJson != null && bandsJson.isArray()) {
+            for (JsonNode band : bandsJson) {
+                Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+                JsonNode daysJson = band.get("days");
+                if (daysJson == null || !daysJson.isArray() || daysJson.isEmpty()) {
+                    days = EnumSet.allOf(DayOfWeek.class);
+                } else {
+                    for (JsonNode day : daysJson) {
+                        days.add(parseDay(day.asText()));
+                    }
+                }
+                bands.add(new Band(days,
+                        LocalTime.parse(band.get("from").asText()),
+                        LocalTime.parse(band.get("to").asText()),
+                        parseZone(band.get("zone").asText())));
+            }
+        }
+
+        Set<LocalDate> holidays = new HashSet<>();
+        JsonNode holidaysJson = node.get("holidays");
+        if (holidaysJson != null && holidaysJson.isArray()) {
+            for (JsonNode day : holidaysJson) {
+                holidays.add(LocalDate.parse(day.asText()));
+            }
+        }
+        int holidayZone = node.hasNonNull("holidayZone") ? parseZone(node.get("holidayZone").asText()) : defaultZone;
+        return new TimeOfUseTariff(name, timezone, defaultZone, bands, holidays, holidayZone);
+    }
+
+    private static int parseZone(String zone) {
+        return switch (zone.trim().toUpperCase(Locale.ROOT)) {
+            case "HIGH", "PEAK", "1" -> EnergyCost.HIGH;
+            case "LOW", "OFF_PEAK", "0" -> EnergyCost.LOW;
+            default -> throw new IllegalArgumentException("Invalid zone value: " + zone);
+        };
+    }
+
+    private static DayOfWeek parseDay(String day) {
+        String value = day.trim().toUpperCase(Locale.ROOT);
+        for (DayOfWeek dow : DayOfWeek.values()) {
+            if (dow.name().equals(value) || dow.getDisplayName(TextStyle.SHORT, Locale.ENGLISH).toUpperCase(Locale.ROOT).equals(value)) {
+                return dow;
+            }
+        }
+        throw new IllegalArgumentException("Invalid day value: " + day);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public EnergyCost.EnergyZone zoneAt(long ts) {
+        Table t = table;
+        if (t == null || ts < t.from() || ts >= t.to()) {
+            t = compile(Instant.ofEpochMilli(ts).atZone(timezone).toLocalDate());
+            table = t;
+        }
+        int i = Arrays.binarySearch(t.starts(), ts);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        int current = t.zones()[i];
+        if (i + 1 < t.starts().length) {
+            return new EnergyCost.EnergyZone(current, t.zones()[i + 1], t.starts()[i + 1]);
+        }
+        // last segment of the window: the next change is in a later window, if any
+        Table ahead = t;
+        for (int w = 0; w < MAX_LOOKAHEAD_WINDOWS; w++) {
+            ahead = compile(Instant.ofEpochMilli(ahead.to()).atZone(timezone).toLocalDate());
+            for (int k = 0; k < ahead.starts().length; k++) {
+                if (ahead.starts()[k] > ts && ahead.zones()[k] != current) {
+                    return new EnergyCost.EnergyZone(current, ahead.zones()[k], ahead.starts()[k]);
+                }
+            }
+        }
+        return new EnergyCost.EnergyZone(current, current, Long.MAX_VALUE);
+    }
+
+    /**
+     * Builds the transitions from the day before {@code firstDay} through
+     * {@link #WINDOW_DAYS} days after it, merging neighbours with the same zone.
+     */
+    private Table compile(LocalDate firstDay) {
+        List<Long> starts = new ArrayList<>();
+        List<Integer> zones = new ArrayList<>();
+        LocalDate start = firstDay.minusDays(1);
+        LocalDate end = firstDay.plusDays(WINDOW_DAYS);
+        for (LocalDate day = start; day.isBefore(end); day = day.plusDays(1)) {
+            long dayStart = day.atStartOfDay(timezone).toInstant().toEpochMilli();
+            if (holidays.contains(day)) {
+                append(starts, zones, dayStart, holidayZone);
+                continue;
+            }
+            TreeSet<LocalTime> boundaries = new TreeSet<>();
+            boundaries.add(LocalTime.MIDNIGHT);
+            for (Band band : bands) {
+                if (band.days().contains(day.getDayOfWeek())) {
+                    boundaries.add(band.from());
+                    if (band.to().isAfter(band.from())) {
+                        boundaries.add(band.to());
+                    }
+                }
+            }
+            for (LocalTime boundary : boundaries) {
+                long ts = boundary.equals(LocalTime.MIDNIGHT)
+                        ? dayStart
+                        : day.atTime(boundary).atZone(timezone).toInstant().toEpochMilli();
+                append(starts, zones, ts, zoneAt(day.getDayOfWeek(), boundary));
+            }
+        }
+        long[] startArray = new long[starts.size()];
+        int[] zoneArray = new int[zones.size()];
+        for (int i = 0; i < startArray.length; i++) {
+            startArray[i] = starts.get(i);
+            zoneArray[i] = zones.get(i);
+        }
+        long to = end.atStartOfDay(timezone).toInstant().toEpochMilli();
+        return new Table(startArray[0], to, startArray, zoneArray);
+    }
+
+    private int zoneAt(DayOfWeek day, LocalTime time) {
+        int zone = defaultZone;
+        for (Band band : bands) {
+            boolean untilMidnight = !band.to().isAfter(band.from());
+            if (band.days().contains(day) && !time.isBefore(band.from()) && (untilMidnight || time.isBefore(band.to()))) {
+                zone = band.zone();
+            }
+        }
+        return zone;
+    }
+
+    private static void append(List<Long> starts, List<Integer> zones, long ts, int zone) {
+        int last = zones.size() - 1;
+        if (last >= 0 && zones.get(last) == zone) {
+            return;
+        }
+        if (last >= 0 && starts.get(last) >= ts) {
+            // a DST gap folded this boundary onto the previous one
+            zones.set(last, zone);
+            return;
+        }
+        starts.add(ts);
+        zones.add(zone);
+    }
+}
@@ -152,6 +152,22 @@ public class ControllerTest {
         assertFalse(result2.getOperations().get(1).getPower());
     }
     
+    /**
+     * Un contexto creado desde epoch millis es el mismo instante en cualquier
+     * zona horaria del host.
+     */
+    @Test
+    public void testContextFromEpochMillis() {
+        long peak = peakHours17.toInstant(ZoneOffset.UTC).toEpochMilli();
+        Context context = new Context(peak);
+        assertEquals(peak, context.getTimestamp());
+        assertEquals(peakHours17, context.getCurrentTime());
+
+        appData.setContext(context);
+        appData.getSwitchStatus().add(new DataSwitch("http://host:port/switch/1", true));
+        assertFalse(instance.powerManagement(appData).getOperations().get(0).getPower());
+    }
+
     @Test
     public void testReactivationAfterPeakHours() {
         appData.setContext(new Context(notPeakHours12));
@@ -166,6 +182,164 @@ public class ControllerTest {
         assertEquals("http://host:port/switch/2", result.getOperations().get(0).getSwitchURL());
         assertTrue(result.getOperations().get(0).getPower(), "El switch debe encenderse para alcanzar la temperatura.");
     }
+
+    /**
+     * El controlador decide igual con un snapshot que con la lista de switches.
+     */
+    @Test
+    public void testWithSwitchSnapshot() {
+        appData.setContext(new Context(notPeakHours12));
+        SwitchSnapshot snapshot = new SwitchSnapshot(appData.getSiteConfig().getIndex()).withActive(0, true);
+        appData.setSwitchStatus(snapshot);
+
+        ControlResponse result = instance.powerManagement(appData);
+
+        assertEquals(1, result.getOperations().size());
+        assertEquals("http://host:port/switch/2", result.getOperations().get(0).getSwitchURL());
+        assertTrue(result.getOperations().get(0).getPower());
+    }
+
+    /**
+     * La energía activa se mantiene al encender y apagar, igual que si se
+     * recalculara desde cero.
+     */
+    @Test
+    public void testSnapshotActiveEnergy() {
+        SwitchSnapshot snapshot = new SwitchSnapshot(appData.getSiteConfig().getIndex()).withActive(0, true);
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(2.0, snapshot.getActiveEnergy(), 0.001);
+
+        SwitchSnapshot bothOn = snapshot.withActive(1, true);
+        assertEquals(4.0, bothOn.getActiveEnergy(), 0.001);
+        assertEquals(2.0, bothOn.withActive(0, false).getActiveEnergy(), 0.001);
+        assertEquals(bothOn.recomputeActiveEnergy(), bothOn.getActiveEnergy(), 0.001);
+    }
+
+    /**
+     * Cada cambio crea un snapshot nuevo y deja el anterior como estaba.
+     */
+    @Test
+    public void testSnapshotIsImmutable() {
+        SwitchSnapshot snapshot = new SwitchSnapshot(appData.getSiteConfig().getIndex()).withActive(0, true);
+        assertSame(snapshot, snapshot.withActive(0, true), "Sin cambios no se crea una nueva versión.");
+        assertFalse(snapshot.withActive(0, false).isActive("http://host:port/switch/1"));
+        assertTrue(snapshot.isActive(0), "El snapshot original no cambia.");
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(new DataSwitch("x", true)));
+    }
+
+    /**
+     * Un switch es conocido desde que reporta su estado por primera vez.
+     */
+    @Test
+    public void testSnapshotKnownSwitches() {
+        SiteIndex index = appData.getSiteConfig().getIndex();
+        SwitchSnapshot snapshot = new SwitchSnapshot(index).withActive(0, true);
+        assertTrue(snapshot.isKnown(0));
+        assertFalse(snapshot.isKnown(1), "Un switch sin estado reportado es desconocido.");
+        assertEquals(1, snapshot.nextUnknownSlot(0));
+        assertTrue(snapshot.withActive(1, false).isKnown(1));
+        assertEquals(1, snapshot.withActive(1, false).getVersion() - snapshot.getVersion());
+
+        SwitchSnapshot discovered = SwitchSnapshot.of(index, List.of(new DataSwitch("http://host:port/switch/2", false)));
+        assertEquals(1, discovered.getKnownCount());
+        assertEquals(0, discovered.nextUnknownSlot(0));
+    }
+
+    /**
+     * Con la carga medida del switch encendido (0,5 en lugar de 2 nominal)
+     * queda presupuesto para encender el otro.
+     */
+    @Test
+    public void testMeasuredLoadFreesBudget() {
+        appData.setContext(new Context(notPeakHours12));
+        appData.getSiteConfig().setMaxEnergy(3.0f);
+        SiteIndex index = appData.getSiteConfig().getIndex();
+        SwitchSnapshot nominal = new SwitchSnapshot(index).withActive(0, true);
+        appData.setSwitchStatus(nominal);
+        assertFalse(instance.powerManagement(appData).getOperations().get(0).getPower(),
+                "Con la carga nominal no hay presupuesto.");
+
+        SwitchSnapshot measured = nominal.withStatus(0, true, 0.5);
+        assertEquals(0.5, measured.getActiveLoad(), 0.001);
+        assertEquals(2.0, measured.getActiveEnergy(), 0.001, "La energía nominal no cambia.");
+        assertEquals(measured.recomputeActiveLoad(), measured.getActiveLoad(), 0.001);
+        appData.setSwitchStatus(measured);
+        assertTrue(instance.powerManagement(appData).getOperations().get(0).getPower());
+
+        SwitchSnapshot flipped = measured.withActive(0, false).withActive(0, true);
+        assertTrue(Double.isNaN(flipped.getMeasuredPower(0)), "La medición se descarta al cambiar de estado.");
+        assertEquals(2.0, flipped.getActiveLoad(), 0.001);
+    }
+
+    /**
+     * Un encendido todavía sin confirmar ocupa presupuesto y también se apaga
+     * en horas pico.
+     */
+    @Test
+    public void testReservedTurnOnCountsAgainstBudget() {
+        appData.setContext(new Context(notPeakHours12));
+        appData.getSiteConfig().setMaxEnergy(3.0f);
+        SiteIndex index = appData.getSiteConfig().getIndex();
+        SwitchSnapshot reserved = new SwitchSnapshot(index).withReserved(0, true);
+        appData.setSwitchStatus(reserved);
+        assertEquals(2.0, reserved.getActiveLoad(), 0.001);
+        assertEquals(reserved.recomputeActiveLoad(), reserved.getActiveLoad(), 0.001);
+        assertFalse(instance.powerManagement(appData).getOperations().get(0).getPower());
+
+        assertEquals(2.0, reserved.withActive(0, true).getActiveLoad(), 0.001, "Al confirmarse no se cuenta dos veces.");
+
+        appData.setContext(new Context(peakHours17));
+        List<Operation> operations = instance.powerManagement(appData).getOperations();
+        assertEquals(1, operations.size());
+        assertEquals("http://host:port/switch/1", operations.get(0).getSwitchURL());
+        assertFalse(operations.get(0).getPower());
+    }
+
+    @Test
+    public void testBatchAllocatesBudgetToColdestRoom() throws JsonProcessingException {
+        DataSite site = appData.getSiteConfig();
+        site.setMaxEnergy(2.0f);
+        DataSensor office = new DataSensor("{\"src\":\"office1\"}");
+        office.setTemperature(21.0f);
+        DataSensor suite = new DataSensor("{\"src\":\"shellyhtg3-84fce63ad204\"}");
+        suite.setTemperature(15.0f);
+
+        List<DataSwitch> switches = new ArrayList<>();
+        switches.add(new DataSwitch("http://host:port/switch/1", false));
+        switches.add(new DataSwitch("http://host:port/switch/2", false));
+
+        AppBatchData batch = new AppBatchData(site, List.of(office, suite), switches, new Context(notPeakHours12));
+        ControlResponse result = instance.powerManagementBatch(batch);
+
+        assertEquals(2, result.getOperations().size());
+        assertEquals("http://host:port/switch/2", result.getOperations().get(0).getSwitchURL());
+        assertTrue(result.getOperations().get(0).getPower(), "La habitación más fría recibe el presupuesto.");
+        assertEquals("http://host:port/switch/1", result.getOperations().get(1).getSwitchURL());
+        assertFalse(result.getOperations().get(1).getPower());
+    }
+
+    @Test
+    public void testBatchReleasesBudgetBeforeAllocating() throws JsonProcessingException {
+        DataSite site = appData.getSiteConfig();
+        site.setMaxEnergy(2.0f);
+        DataSensor office = new DataSensor("{\"src\":\"office1\"}");
+        office.setTemperature(23.0f);
+        DataSensor suite = new DataSensor("{\"src\":\"shellyhtg3-84fce63ad204\"}");
+        suite.setTemperature(19.0f);
+
+        List<DataSwitch> switches = new ArrayList<>();
+        switches.add(new DataSwitch("http://host:port/switch/1", true));
+        switches.add(new DataSwitch("http://host:port/switch/2", false));
+
+        AppBatchData batch = new AppBatchData(site, List.of(suite, office), switches, new Context(notPeakHours12));
+        ControlResponse result = instance.powerManagementBatch(batch);
+
+        assertEquals(2, result.getOperations().size());
+        assertFalse(result.getOperations().get(0).getPower());
+        assertEquals("http://host:port/switch/2", result.getOperations().get(1).getSwitchURL());
+        assertTrue(result.getOperations().get(1).getPower(), "El consumo liberado por office1 alcanza para la suite.");
+    }
+
     private AppData getAppDataTemplate() {
         String siteConfig = """
                                 {
@@ -1,6 +1,7 @@
 package com.ioteste.control;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import org.junit.jupiter.api.Test;
@@ -79,4 +80,44 @@ public class DataSensorTest {
 
         assertEquals(expectedEpochMilli2, actualEpochMilli2, "El timestamp extraído debe coincidir con el valor fijo del JSON.");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDataSensorFromBytes() throws JsonProcessingException {
+        String sensor = """
+                        {
+                            "src":"shellyhtg3-84fce63ad204",
+                            "dst":"ht-suite/events",
+                            "method":"NotifyFullStatus",
+                            "ts":1735694700.0,
+                            "params":{
+                                "ts":1735694700.0,
+                                "ble":{},
+                                "devicepower:0":{"id":0,"battery":{"V":6.1,"percent":100},"external":{"present":false}},
+                                "humidity:0":{"id":0,"rh":58.9},
+                                "temperature:0":{"id":0,"tC":19.9,"tF":67.82}
+                            }
+                        }""";
+        DataSensor test = new DataSensor(sensor.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("shellyhtg3-84fce63ad204", test.getRoom());
+        assertEquals(19.9f, test.getTemperature(), 0.01f);
+        assertEquals(58.9f, test.getHumidity(), 0.01f);
+        assertEquals(1735694700L, test.getDateTime().toEpochSecond(ZoneOffset.UTC));
+    }
+
+    @Test
+    public void testDataSensorFallbacks() throws JsonProcessingException {
+        DataSensor onlyParamsTs = new DataSensor("{\"params\":{\"ts\":42,\"temperature:0\":{\"tC\":\"20.5\"}}}");
+        assertEquals("unknown-room", onlyParamsTs.getRoom());
+        assertEquals(20.5f, onlyParamsTs.getTemperature(), 0.01f);
+        assertEquals(0f, onlyParamsTs.getHumidity(), 0.01f);
+        assertEquals(42L, onlyParamsTs.getDateTime().toEpochSecond(ZoneOffset.UTC));
+
+        long before = LocalDateTime.now(ZoneOffset.UTC).toEpochSecond(ZoneOffset.UTC);
+        DataSensor noTs = new DataSensor("{\"temperature\": 30.0}");
+        assertEquals(0f, noTs.getTemperature(), 0.01f);
+        assertTrue(noTs.getDateTime().toEpochSecond(ZoneOffset.UTC) >= before, "Sin ts se usa la hora actual.");
+
+        assertThrows(JsonProcessingException.class, () -> new DataSensor("{\"src\": "));
+    }
+}
@@ -0,0 +1,42 @@
+package com.ioteste.control;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataSiteTest {
+
+    private static String site(String sensorTimeout) {
+        return """
+               {
+                   "maxEnergy": "4 kWh",
+                   "rooms": [
+                       {
+                           "name": "office1",
+                           "expectedTemp": "22",
+                           "energy": "2 kWh",
+                           "switch": "http://host:port/switch/1",
+                           "sensor": "mqtt:topic1",
+                           "sensorTimeout": "%s"
+                       }
+                   ]
+               }""".formatted(sensorTimeout);
+    }
+
+    @Test
+    public void testParseTimeoutUnits() {
+        assertEquals(8000, DataSite.parseTimeoutMs("8000"));
+        assertEquals(8000, DataSite.parseTimeoutMs("8000 ms"));
+        assertEquals(8000, DataSite.parseTimeoutMs("8 s"));
+        assertEquals(1500, DataSite.parseTimeoutMs(" 1.5 s "));
+        assertThrows(IllegalArgumentException.class, () -> DataSite.parseTimeoutMs("8 min"),
+                "Una unidad desconocida no se toma como milisegundos.");
+        assertThrows(IllegalArgumentException.class, () -> DataSite.parseTimeoutMs("ocho s"));
+    }
+
+    @Test
+    public void testUnknownTimeoutUnitFallsBackToDefault() throws Exception {
+        assertEquals(8000, new DataSite(site("8 s")).getRooms().get(0).getSensorTimeoutMs());
+        assertEquals(0, new DataSite(site("8 min")).getRooms().get(0).getSensorTimeoutMs(),
+                "Con una unidad desconocida la habitación usa el timeout por defecto.");
+    }
+}
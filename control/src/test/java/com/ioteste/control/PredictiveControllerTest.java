@@ -0,0 +1,148 @@
+package com.ioteste.control;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PredictiveControllerTest {
+
+    private static final String CONTRACT = "predictiveTest";
+    private static final long PEAK = 1_750_003_200_000L;
+    private static final long HOUR = 3_600_000L;
+    private static final String SWITCH = "http://host:port/switch/1";
+
+    private final DataSite site = new DataSite(4f, List.of(new Room("office1", 20f, 2f, SWITCH, "topic1")));
+
+    /**
+     * Un pico de una hora que empieza en PEAK.
+     */
+    @BeforeAll
+    public static void setup() {
+        TariffEngine.getDefault().register(CONTRACT, ts -> ts < PEAK
+                ? new EnergyCost.EnergyZone(EnergyCost.LOW, EnergyCost.HIGH, PEAK)
+                : ts < PEAK + HOUR
+                        ? new EnergyCost.EnergyZone(EnergyCost.HIGH, EnergyCost.LOW, PEAK + HOUR)
+                        : new EnergyCost.EnergyZone(EnergyCost.LOW, EnergyCost.LOW, Long.MAX_VALUE));
+    }
+
+    /**
+     * Con lecturas que oscilan alrededor del objetivo el controlador por
+     * defecto conmuta en cada lectura; el predictivo casi no conmuta.
+     */
+    @Test
+    public void testHysteresisAndDwellAvoidChatter() throws JsonProcessingException {
+        int defaultOps = countOperations(new DefaultController(CONTRACT));
+        int predictiveOps = countOperations(new PredictiveController(CONTRACT, PredictiveController.Settings.defaults()));
+        assertTrue(defaultOps >= 10, "El controlador por defecto debería conmutar seguido: " + defaultOps);
+        assertEquals(2, predictiveOps, "Debería encender una vez y apagar una vez.");
+    }
+
+    private int countOperations(Controller controller) throws JsonProcessingException {
+        List<DataSwitch> switches = new ArrayList<>(List.of(new DataSwitch(SWITCH, false)));
+        long start = PEAK - 10 * HOUR;
+        int operations = 0;
+        for (int i = 0; i < 20; i++) {
+            float temperature = i == 0 ? 19.5f : i % 2 == 0 ? 19.9f : 20.1f;
+            operations += apply(controller, switches, temperature, start + i * 10_000L);
+        }
+        // se pasó del objetivo, pero solo se apaga cuando cumplió el tiempo mínimo encendido
+        operations += apply(controller, switches, 20.5f, start + 200_000L);
+        return operations;
+    }
+
+    /**
+     * Aprende cuánto se enfría la habitación y, poco antes del pico, la
+     * calienta por encima del objetivo.
+     */
+    @Test
+    public void testPreheatsBeforePeak() throws JsonProcessingException {
+        PredictiveController controller = new PredictiveController(CONTRACT, PredictiveController.Settings.defaults());
+        List<DataSwitch> switches = new ArrayList<>(List.of(new DataSwitch(SWITCH, false)));
+
+        long start = PEAK - 3 * HOUR;
+        assertEquals(0, apply(controller, switches, 22.0f, start));
+        assertEquals(0, apply(controller, switches, 21.8f, start + 600_000L));
+        double coolPerHour = controller.getModel("office1").getCoolRate() * HOUR;
+        assertEquals(-1.2, coolPerHour, 0.01);
+
+        assertEquals(0, apply(controller, switches, 20.5f, PEAK - 2 * HOUR), "Lejos del pico no hace falta calentar.");
+        assertEquals(1, apply(controller, switches, 20.5f, PEAK - 20 * 60_000L), "Antes del pico debería precalentar.");
+        assertTrue(switches.get(0).isActive());
+
+        assertEquals(1, apply(controller, switches, 21.0f, PEAK + 60_000L), "En el pico se apaga todo.");
+        assertFalse(switches.get(0).isActive());
+    }
+
+    /**
+     * El tiempo mínimo encendido cuenta desde que el switch confirma, no desde
+     * que se decide encenderlo.
+     */
+    @Test
+    public void testDwellStartsOnAcknowledgement() throws JsonProcessingException {
+        PredictiveController controller = new PredictiveController(CONTRACT, PredictiveController.Settings.defaults());
+        List<DataSwitch> switches = new ArrayList<>(List.of(new DataSwitch(SWITCH, false)));
+        long start = PEAK - 10 * HOUR;
+
+        List<Operation> on = decide(controller, switches, 19.0f, start);
+        assertTrue(on.get(0).getPower());
+        switches.get(0).setActive(true);
+        controller.acknowledged(on.get(0), start + 100_000L);
+
+        assertTrue(decide(controller, switches, 21.0f, start + 150_000L).isEmpty(),
+                "Solo pasaron 50 s desde la confirmación.");
+        assertFalse(decide(controller, switches, 21.0f, start + 220_000L).get(0).getPower());
+    }
+
+    /**
+     * Un lote se decide sobre un solo snapshot: con presupuesto para una sola
+     * habitación se enciende la más fría.
+     */
+    @Test
+    public void testBatchSharesOneSnapshot() throws JsonProcessingException {
+        String other = "http://host:port/switch/2";
+        DataSite twoRooms = new DataSite(2f, List.of(new Room("office1", 20f, 2f, SWITCH, "topic1"),
+                new Room("office2", 20f, 2f, other, "topic2")));
+        PredictiveController controller = new PredictiveController(CONTRACT, PredictiveController.Settings.defaults());
+        SwitchSnapshot snapshot = new SwitchSnapshot(twoRooms.getIndex());
+        List<DataSensor> readings = List.of(reading("office1", 19.0f), reading("office2", 17.0f));
+        Context context = new Context(PEAK - 10 * HOUR);
+
+        List<Operation> operations = controller.powerManagementBatch(
+                new AppBatchData(twoRooms, readings, snapshot, context)).getOperations();
+
+        assertEquals(2, operations.size());
+        for (Operation op : operations) {
+            assertEquals(op.getSwitchURL().equals(other), op.getPower(), "Solo se enciende la habitación más fría.");
+        }
+    }
+
+    private static DataSensor reading(String room, float temperature) throws JsonProcessingException {
+        DataSensor reading = new DataSensor("{\"params\":{\"temperature:0\":{\"tC\":" + temperature + "}}}");
+        reading.setRoom(room);
+        reading.setDateTime(null);
+        return reading;
+    }
+
+    private List<Operation> decide(Controller controller, List<DataSwitch> switches, float temperature, long ts)
+            throws JsonProcessingException {
+        return controller.powerManagement(new AppData(site, reading("office1", temperature), switches, new Context(ts)))
+                .getOperations();
+    }
+
+    private int apply(Controller controller, List<DataSwitch> switches, float temperature, long ts)
+            throws JsonProcessingException {
+        List<Operation> operations = decide(controller, switches, temperature, ts);
+        for (Operation op : operations) {
+            for (DataSwitch ds : switches) {
+                if (ds.getSwitchURL().equals(op.getSwitchURL())) {
+                    ds.setActive(op.getPower());
+                    controller.acknowledged(op, ts);
+                }
+            }
+        }
+        return operations.size();
+    }
+}
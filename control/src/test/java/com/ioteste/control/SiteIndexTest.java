@@ -0,0 +1,53 @@
+package com.ioteste.control;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SiteIndexTest {
+
+    public SiteIndexTest() {
+    }
+
+    @Test
+    public void testLookups() {
+        Room office = new Room("office1", 22.0f, 2.0f, "http://host:port/switch/1", "mqtt:topic1");
+        Room suite = new Room("suite", 21.0f, 3.0f, "http://host:port/switch/2", "mqtt:topic2");
+        Room annex = new Room("annex", 21.0f, 1.5f, "http://host:port/switch/2", "mqtt:topic2");
+        SiteIndex index = new SiteIndex(List.of(office, suite, annex));
+
+        assertSame(office, index.getRoomByName("office1"));
+        assertSame(suite, index.getRoomByTopic("mqtt/topic2/2"));
+        assertSame(office, index.getRoomByTopicId("1"));
+        assertSame(suite, index.getRoomBySwitchURL("http://host:port/switch/2"));
+        assertNull(index.getRoomByTopicId("3"));
+
+        assertEquals(2, index.getSwitchCount(), "Los switches compartidos ocupan un solo slot.");
+        assertEquals(0, index.getSlot("http://host:port/switch/1"));
+        assertEquals(1, index.getSlot("http://host:port/switch/2"));
+        assertEquals(-1, index.getSlot("http://host:port/switch/9"));
+        assertEquals(4.5f, index.getSwitchEnergy(1), 0.001f);
+    }
+
+    @Test
+    public void testRebuiltOnSetRooms() throws Exception {
+        DataSite site = new DataSite("""
+                                     {
+                                         "maxEnergy": "4 kWh",
+                                         "rooms": [
+                                             {
+                                                 "name": "office1",
+                                                 "expectedTemp": "22",
+                                                 "energy": "2 kWh",
+                                                 "switch": "http://host:port/switch/1",
+                                                 "sensor": "mqtt:topic1"
+                                             }
+                                         ]
+                                     }""");
+        assertNotNull(site.getIndex().getRoomByName("office1"));
+
+        site.setRooms(List.of(new Room("office2", 20.0f, 1.0f, "http://host:port/switch/5", "mqtt:topic1")));
+        assertNull(site.getIndex().getRoomByName("office1"));
+        assertEquals(0, site.getIndex().getSlot("http://host:port/switch/5"));
+    }
+}
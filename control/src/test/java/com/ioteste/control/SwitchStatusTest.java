@@ -0,0 +1,58 @@
+package com.ioteste.control;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwitchStatusTest {
+
+    @Test
+    public void testShellyStatus() throws JsonProcessingException {
+        String json = """
+                {
+                    "id": 0,
+                    "source": "HTTP",
+                    "output": true,
+                    "apower": 1450.5,
+                    "voltage": 229.8,
+                    "current": 6.31,
+                    "aenergy": { "total": 1234.5, "by_minute": [1.0, 2.0, 3.0] },
+                    "temperature": { "tC": 41.2, "tF": 106.2 }
+                }""";
+        SwitchStatus status = new SwitchStatus(json.getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(status.hasOutput());
+        assertTrue(status.isOutput());
+        assertEquals(1450.5, status.getActivePower(), 0.001);
+        assertEquals(229.8, status.getVoltage(), 0.001);
+        assertEquals(6.31, status.getCurrent(), 0.001);
+        assertEquals(1234.5, status.getEnergyTotal(), 0.001);
+        assertEquals(41.2, status.getTemperature(), 0.001);
+
+        DataSwitch ds = status.toDataSwitch("http://host:port/switch/1");
+        assertTrue(ds.isActive());
+        assertEquals(1.4505, ds.getMeasuredPower(), 0.0001, "La potencia se pasa de W a kW.");
+    }
+
+    /**
+     * Respuestas envueltas, sin potencia o sin estado.
+     */
+    @Test
+    public void testWrappedAndPartialStatus() throws JsonProcessingException {
+        SwitchStatus rpc = new SwitchStatus("{\"id\":1,\"result\":{\"output\":false,\"apower\":0}}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(rpc.hasOutput());
+        assertFalse(rpc.isOutput());
+        assertEquals(0.0, rpc.getActivePower(), 0.001);
+
+        SwitchStatus legacy = new SwitchStatus("{\"ison\": true}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(legacy.isOutput());
+        assertFalse(legacy.toDataSwitch("x").hasMeasuredPower());
+
+        SwitchStatus nested = new SwitchStatus("{\"sys\":{\"output\":true},\"switch:0\":{\"output\":true}}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(nested.isOutput());
+
+        assertFalse(new SwitchStatus("{\"output\":\"on\"}".getBytes(StandardCharsets.UTF_8)).hasOutput());
+        assertThrows(JsonProcessingException.class, () -> new SwitchStatus("{\"output\":".getBytes(StandardCharsets.UTF_8)));
+    }
+}
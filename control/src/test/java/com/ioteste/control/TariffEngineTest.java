@@ -0,0 +1,78 @@
+package com.ioteste.control;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TariffEngineTest {
+
+    private static final String CONTRACTS = """
+                                            {
+                                                "contracts": [
+                                                    {
+                                                        "name": "residencial",
+                                                        "timezone": "UTC",
+                                                        "defaultZone": "LOW",
+                                                        "bands": [
+                                                            { "days": ["MON", "TUE", "WED", "THU", "FRI"], "from": "18:00", "to": "22:00", "zone": "HIGH" }
+                                                        ],
+                                                        "holidays": ["2025-12-25"]
+                                                    },
+                                                    {
+                                                        "name": "plano",
+                                                        "defaultZone": "LOW"
+                                                    }
+                                                ]
+                                            }
+                                            """;
+
+    public TariffEngineTest() {
+    }
+
+    private static long ts(int month, int day, int hour) {
+        return LocalDateTime.of(2025, month, day, hour, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    @Test
+    public void testTimeOfUseContract() throws Exception {
+        TariffEngine engine = new TariffEngine();
+        assertEquals(2, engine.load(CONTRACTS));
+
+        EnergyCost.EnergyZone peak = engine.zone("residencial", ts(12, 22, 19));
+        assertEquals(EnergyCost.HIGH, peak.current());
+        assertEquals(EnergyCost.LOW, peak.next());
+        assertEquals(ts(12, 22, 22), peak.nextTS());
+
+        EnergyCost.EnergyZone morning = engine.zone("residencial", ts(12, 22, 10));
+        assertEquals(EnergyCost.LOW, morning.current());
+        assertEquals(ts(12, 22, 18), morning.nextTS());
+
+        EnergyCost.EnergyZone holiday = engine.zone("residencial", ts(12, 25, 19));
+        assertEquals(EnergyCost.LOW, holiday.current(), "Los feriados no tienen horario punta.");
+        assertEquals(ts(12, 26, 18), holiday.nextTS());
+
+        EnergyCost.EnergyZone saturday = engine.zone("residencial", ts(12, 27, 12));
+        assertEquals(EnergyCost.LOW, saturday.current());
+        assertEquals(ts(12, 29, 18), saturday.nextTS(), "El fin de semana sigue hasta el lunes.");
+
+        EnergyCost.EnergyZone flat = engine.zone("plano", ts(12, 22, 19));
+        assertEquals(EnergyCost.LOW, flat.current());
+        assertEquals(Long.MAX_VALUE, flat.nextTS());
+
+        assertThrows(IllegalArgumentException.class, () -> engine.zone("inexistente", ts(12, 22, 19)));
+    }
+
+    @Test
+    public void testCachedZoneIsShared() {
+        TariffEngine engine = new TariffEngine();
+        TariffEngine.CachedZone cache = engine.cached(EnergyCost.TEST_CONTRACT_30S);
+        assertSame(cache, engine.cached(EnergyCost.TEST_CONTRACT_30S));
+
+        long ts = 1_700_000_000_000L;
+        EnergyCost.EnergyZone zone = cache.zoneAt(ts);
+        assertSame(zone, cache.zoneAt(ts + 1), "Dentro del mismo tramo no se recalcula.");
+        assertEquals(engine.zone(EnergyCost.TEST_CONTRACT_30S, zone.nextTS()), cache.zoneAt(zone.nextTS()));
+        assertEquals((ts / 60000) % 2, zone.current());
+    }
+}